@@ -0,0 +1,105 @@
+package name.herve.dupedir.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import name.herve.dupedir.Counter;
+import name.herve.dupedir.IntCounter;
+
+// Counter.add the way nbFilePerDir was filled, and IntCounter that replaced it : one call per file, keyed by directory
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CounterBenchmark {
+	// one counter for all the benchmark threads, like concurrent indexing
+	@State(Scope.Benchmark)
+	public static class SharedCounter {
+		private IntCounter counter;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			counter = new IntCounter();
+		}
+	}
+
+	@Param({ "1000000" })
+	private int nbFiles;
+
+	@Param({ "3", "8" })
+	private int depth;
+
+	private Integer[] dirIds;
+	private int[] intDirIds;
+	private String[] dirPaths;
+
+	@Benchmark
+	public IntCounter addIntCounter() {
+		IntCounter c = new IntCounter();
+		for (int id : intDirIds) {
+			c.add(id);
+		}
+		return c;
+	}
+
+	@Benchmark
+	@Threads(4)
+	public IntCounter addIntCounterShared(SharedCounter shared) {
+		for (int id : intDirIds) {
+			shared.counter.add(id);
+		}
+		return shared.counter;
+	}
+
+	@Benchmark
+	public Counter<Integer> addIntegerKeys() {
+		Counter<Integer> c = new Counter<>();
+		for (Integer id : dirIds) {
+			c.add(id);
+		}
+		return c;
+	}
+
+	@Benchmark
+	public Counter<String> addStringKeys() {
+		Counter<String> c = new Counter<>();
+		for (String p : dirPaths) {
+			c.add(p);
+		}
+		return c;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		SyntheticTree tree = new SyntheticTree(nbFiles, depth, 1000, 42);
+		dirIds = new Integer[tree.size()];
+		intDirIds = new int[tree.size()];
+		dirPaths = new String[tree.size()];
+		int id = -1;
+		String last = null;
+		for (int i = 0; i < tree.size(); i++) {
+			if (!tree.getDir(i).equals(last)) {
+				last = tree.getDir(i);
+				id++;
+			}
+			dirIds[i] = id;
+			intDirIds[i] = id;
+			dirPaths[i] = last;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package name.herve.dupedir.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.DupedirFinder.DuplicateDir;
+import name.herve.dupedir.Log;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexBenchmark {
+	@Param({ "200000", "1000000" })
+	private int nbFiles;
+
+	@Param({ "3", "8" })
+	private int depth;
+
+	@Param({ "5000", "100000" })
+	private int nbNames;
+
+	@Param({ "50", "500" })
+	private int maxNbDirForFile;
+
+	private SyntheticTree tree;
+	private DupedirFinder indexed;
+
+	@Benchmark
+	public DupedirFinder addFileToIndex() {
+		return tree.index(maxNbDirForFile);
+	}
+
+	@Benchmark
+	public List<DuplicateDir> findDuplicates() {
+		return indexed.findDuplicates(false);
+	}
+
+	@Benchmark
+	public List<DuplicateDir> findDuplicatesHierarchy() {
+		return indexed.findDuplicates(true);
+	}
+
+	@Benchmark
+	public DupedirFinder hierarchyStats() {
+		indexed.hierarchyStats();
+		return indexed;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Log.setQuiet(true);
+		tree = new SyntheticTree(nbFiles, depth, nbNames, 42);
+		indexed = tree.index(maxNbDirForFile);
+		indexed.hierarchyStats();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Log.setQuiet(false);
+	}
+}
@@ -0,0 +1,82 @@
+package name.herve.dupedir.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.ListingWriter;
+import name.herve.dupedir.Log;
+import name.herve.dupedir.ScanSnapshot;
+
+// the -l loader, from a listing written once per trial
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoaderBenchmark {
+	@Param({ "1000000" })
+	private int nbFiles;
+
+	@Param({ "5" })
+	private int depth;
+
+	@Param({ "true", "false" })
+	private boolean binary;
+
+	@Param({ "1", "4" })
+	private int nbThreads;
+
+	private Path listing;
+
+	@Benchmark
+	public DupedirFinder load() throws IOException {
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setNbThreads(nbThreads);
+		ddf.load(listing);
+		return ddf;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		Log.setQuiet(true);
+		SyntheticTree tree = new SyntheticTree(nbFiles, depth, nbFiles / 10, 42);
+		// already in the order of their paths
+		List<String> paths = new ArrayList<>();
+		for (int i = 0; i < tree.size(); i++) {
+			paths.add(ScanSnapshot.child(tree.getDir(i), tree.getName(i)));
+		}
+		listing = Files.createTempFile("dupedir-bench", ".lst");
+		try (ListingWriter w = new ListingWriter(listing, binary, false)) {
+			for (String p : paths) {
+				w.write(p);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(listing);
+		Log.setQuiet(false);
+	}
+}
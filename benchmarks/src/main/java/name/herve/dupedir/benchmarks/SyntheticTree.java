@@ -0,0 +1,98 @@
+package name.herve.dupedir.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.TreeGenerator;
+
+// a TreeGenerator tree held in memory, files grouped by directory like a scan or a listing would give them
+public class SyntheticTree {
+	private static final int FILES_PER_DIR = 20;
+
+	// directories below the root of a complete tree, the root has no files
+	private static long nbTreeDirs(int fanOut, int depth) {
+		long nb = 0;
+		long nbAtLevel = 1;
+		for (int l = 1; (l <= depth) && (nb < Integer.MAX_VALUE); l++) {
+			nbAtLevel *= fanOut;
+			nb += nbAtLevel;
+		}
+		return nb;
+	}
+
+	private List<String> dirs;
+	private List<String> names;
+	private long nbDirs;
+
+	// a small number of names means a lot of reuse, about one directory out of ten has a planted copy : the fan out whose tree is the
+	// closest to FILES_PER_DIR files per directory, then as many files per directory as needed to reach nbFiles, and the files past
+	// nbFiles dropped, so size() may only fall short of nbFiles when the names drawn for a directory collide
+	public SyntheticTree(int nbFiles, int depth, int nbNames, long seed) {
+		super();
+		long nbTargetDirs = Math.max(1, nbFiles / FILES_PER_DIR);
+		int fanOut = 2;
+		while (nbTreeDirs(fanOut, depth) < nbTargetDirs) {
+			fanOut++;
+		}
+		if ((fanOut > 2) && ((nbTreeDirs(fanOut, depth) / (double) nbTargetDirs) > (nbTargetDirs / (double) nbTreeDirs(fanOut - 1, depth)))) {
+			fanOut--;
+		}
+		long nbDirsInTree = nbTreeDirs(fanOut, depth);
+		int nbPlanted = (int) Math.max(1, nbDirsInTree / (10 * (fanOut + 1)));
+		// the copies are planted one level above the leaves, so each one is a directory and its children
+		long nbCopyDirs = (long) nbPlanted * (depth > 1 ? fanOut + 1 : 1);
+		TreeGenerator g = new TreeGenerator();
+		g.setDepth(depth);
+		g.setFanOut(fanOut);
+		g.setNbFilesPerDir((int) Math.max(1, ((nbFiles + nbDirsInTree + nbCopyDirs) - 1) / (nbDirsInTree + nbCopyDirs)));
+		g.setNbNames(nbNames);
+		g.setNbPlanted(nbPlanted);
+		g.setSeed(seed);
+
+		dirs = new ArrayList<>();
+		names = new ArrayList<>();
+		try {
+			g.generate((dir, name, size) -> {
+				if (dirs.size() < nbFiles) {
+					if (dirs.isEmpty() || !dirs.get(dirs.size() - 1).equals(dir)) {
+						nbDirs++;
+					}
+					dirs.add(dir);
+					names.add(name);
+				}
+			});
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public String getDir(int i) {
+		return dirs.get(i);
+	}
+
+	public String getName(int i) {
+		return names.get(i);
+	}
+
+	public long getNbDirs() {
+		return nbDirs;
+	}
+
+	public DupedirFinder index(int maxNbDirForFile) {
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setMaxNbDirForFile(maxNbDirForFile);
+		for (int i = 0; i < dirs.size(); i++) {
+			ddf.addFileToIndex(dirs.get(i), names.get(i));
+		}
+		return ddf;
+	}
+
+	// the real number of files, at most the nbFiles asked for
+	public int size() {
+		return dirs.size();
+	}
+}
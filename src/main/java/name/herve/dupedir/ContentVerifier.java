@@ -0,0 +1,300 @@
+package name.herve.dupedir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ContentVerifier {
+	// what is known about a file, each stage only fills what the previous ones could not rule out
+	private static class Digest {
+		private long size;
+		private long mtime;
+		private byte[] partialHash;
+		private byte[] fullHash;
+		private boolean failed;
+
+		public Digest() {
+			super();
+			size = ListingFormat.UNKNOWN_SIZE;
+			failed = false;
+		}
+	}
+
+	private enum Stage {
+		SIZE, PARTIAL, FULL
+	}
+
+	public static final int PARTIAL_BLOCK_SIZE = 4096;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private int nbThreads;
+	private int blockSize;
+	private HashCache cache;
+	private Map<Path, Digest> digests;
+	private AtomicLong nbErrors;
+	private AtomicLong nbBytesRead;
+	private long[] nbFilesByStage;
+
+	public ContentVerifier(int nbThreads) {
+		super();
+		this.nbThreads = Math.max(1, nbThreads);
+		blockSize = PARTIAL_BLOCK_SIZE;
+		digests = new ConcurrentHashMap<>();
+		nbErrors = new AtomicLong();
+		nbBytesRead = new AtomicLong();
+		nbFilesByStage = new long[Stage.values().length];
+	}
+
+	private void compute(Path file, Stage stage) {
+		Digest d = digests.get(file);
+		try {
+			switch (stage) {
+			case SIZE:
+				BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				d.size = attrs.isRegularFile() ? attrs.size() : ListingFormat.UNKNOWN_SIZE;
+				d.mtime = HashCache.mtime(attrs);
+				d.failed = !attrs.isRegularFile();
+				if ((cache != null) && !d.failed) {
+					// unchanged files get their hashes from the cache, the next stages have nothing left to read
+					HashCache.Entry e = cache.get(key(file), d.size, d.mtime);
+					if ((e != null) && (e.getPartialHash() != null)) {
+						d.partialHash = e.getPartialHash();
+						d.fullHash = e.getFullHash();
+					}
+				}
+				break;
+			case PARTIAL:
+				d.partialHash = hashPartial(file, d.size);
+				if (d.size <= (2L * blockSize)) {
+					// the head and tail blocks already covered the whole file
+					d.fullHash = d.partialHash;
+				}
+				store(file, d);
+				break;
+			case FULL:
+				d.fullHash = hashFull(file);
+				store(file, d);
+				break;
+			}
+		} catch (IOException e) {
+			d.failed = true;
+			nbErrors.incrementAndGet();
+		}
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public HashCache getCache() {
+		return cache;
+	}
+
+	public long getNbBytesRead() {
+		return nbBytesRead.get();
+	}
+
+	public long getNbErrors() {
+		return nbErrors.get();
+	}
+
+	public long getNbFilesFullyHashed() {
+		return nbFilesByStage[Stage.FULL.ordinal()];
+	}
+
+	public long getNbFilesPartiallyHashed() {
+		return nbFilesByStage[Stage.PARTIAL.ordinal()];
+	}
+
+	public long getNbFilesSized() {
+		return nbFilesByStage[Stage.SIZE.ordinal()];
+	}
+
+	private byte[] hashFull(Path file) throws IOException {
+		MessageDigest md = newDigest();
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			int n;
+			while ((n = ch.read(buf)) >= 0) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+				nbBytesRead.addAndGet(n);
+			}
+		}
+		return md.digest();
+	}
+
+	private byte[] hashPartial(Path file, long size) throws IOException {
+		MessageDigest md = newDigest();
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (size <= (2L * blockSize)) {
+				read(ch, 0, (int) size, md);
+			} else {
+				read(ch, 0, blockSize, md);
+				read(ch, size - blockSize, blockSize, md);
+			}
+		}
+		return md.digest();
+	}
+
+	private String key(Path file) {
+		return file.toAbsolutePath().toString();
+	}
+
+	private void read(FileChannel ch, long position, int length, MessageDigest md) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			int n = ch.read(buf, position + buf.position());
+			if (n < 0) {
+				// the file shrank since its size was read
+				throw new IOException("unexpected end of file");
+			}
+		}
+		buf.flip();
+		md.update(buf);
+		nbBytesRead.addAndGet(length);
+	}
+
+	// computes the given stage for the files that still need it, each file at most once
+	private void run(Set<Path> files, Stage stage) {
+		if (files.isEmpty()) {
+			return;
+		}
+		nbFilesByStage[stage.ordinal()] += files.size();
+		if (nbThreads <= 1) {
+			for (Path f : files) {
+				compute(f, stage);
+			}
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+		try {
+			List<Future<?>> pending = new ArrayList<>();
+			for (Path f : files) {
+				pending.add(pool.submit(() -> compute(f, stage)));
+			}
+			for (Future<?> f : pending) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	public void setBlockSize(int blockSize) {
+		this.blockSize = Math.max(1, blockSize);
+	}
+
+	// the partial hashes depend on the block size, so a cache must always be used with the same one
+	public void setCache(HashCache cache) {
+		this.cache = cache;
+	}
+
+	private void store(Path file, Digest d) {
+		if (cache != null) {
+			try {
+				cache.put(key(file), d.size, d.mtime, d.partialHash, d.fullHash);
+			} catch (IOException e) {
+				// the hash is still good for this run
+				Log.log(true, e);
+			}
+		}
+	}
+
+	// size of the common content for each pair of files, or -1 when they differ or could not be read
+	public long[] verify(List<Path> files1, List<Path> files2) {
+		int n = files1.size();
+		long[] sizes = new long[n];
+		boolean[] same = new boolean[n];
+		Arrays.fill(same, true);
+
+		for (Stage stage : Stage.values()) {
+			Set<Path> todo = new LinkedHashSet<>();
+			for (int i = 0; i < n; i++) {
+				if (same[i]) {
+					want(files1.get(i), stage, todo);
+					want(files2.get(i), stage, todo);
+				}
+			}
+			run(todo, stage);
+
+			for (int i = 0; i < n; i++) {
+				if (same[i]) {
+					Digest d1 = digests.get(files1.get(i));
+					Digest d2 = digests.get(files2.get(i));
+					if (d1.failed || d2.failed) {
+						same[i] = false;
+					} else if (stage == Stage.SIZE) {
+						same[i] = d1.size == d2.size;
+					} else if (stage == Stage.PARTIAL) {
+						same[i] = Arrays.equals(d1.partialHash, d2.partialHash);
+					} else {
+						same[i] = Arrays.equals(d1.fullHash, d2.fullHash);
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			sizes[i] = same[i] ? digests.get(files1.get(i)).size : ListingFormat.UNKNOWN_SIZE;
+		}
+		return sizes;
+	}
+
+	private void want(Path file, Stage stage, Set<Path> todo) {
+		Digest d = digests.computeIfAbsent(file, f -> new Digest());
+		if (d.failed) {
+			return;
+		}
+		boolean known = false;
+		switch (stage) {
+		case SIZE:
+			known = d.size >= 0;
+			break;
+		case PARTIAL:
+			known = d.partialHash != null;
+			break;
+		case FULL:
+			known = d.fullHash != null;
+			break;
+		}
+		if (!known) {
+			todo.add(file);
+		}
+	}
+}
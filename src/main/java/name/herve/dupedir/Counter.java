@@ -38,7 +38,9 @@ public class Counter<T extends Comparable<T>> implements Iterable<T>, Serializab
 		}
 	}
 
+	// sorted on the first iteration only
 	private class SortedCount implements Iterable<Pair<T, Long>> {
+		private boolean revert;
 		private List<Pair<T, Long>> data;
 
 		public SortedCount() {
@@ -47,25 +49,31 @@ public class Counter<T extends Comparable<T>> implements Iterable<T>, Serializab
 
 		public SortedCount(boolean revert) {
 			super();
-			data = new ArrayList<>();
-			for (Entry<T, MutableLong> e : cnt.entrySet()) {
-				data.add(Pair.of(e.getKey(), e.getValue().val));
+			this.revert = revert;
+		}
+
+		private synchronized List<Pair<T, Long>> getData() {
+			if (data == null) {
+				data = entries();
+				Collections.sort(data, new Comparator<Pair<T, Long>>() {
+					@Override
+					public int compare(Pair<T, Long> o1, Pair<T, Long> o2) {
+						return revert ? Long.compare(o2.getValue(), o1.getValue()) : Long.compare(o1.getValue(), o2.getValue());
+					}
+				});
 			}
-			Collections.sort(data, new Comparator<Pair<T, Long>>() {
-				@Override
-				public int compare(Pair<T, Long> o1, Pair<T, Long> o2) {
-					return revert ? Long.compare(o2.getValue(), o1.getValue()) : Long.compare(o1.getValue(), o2.getValue());
-				}
-			});
+			return data;
 		}
 
 		@Override
 		public Iterator<Pair<T, Long>> iterator() {
-			return data.iterator();
+			return getData().iterator();
 		}
 	}
 
+	// the entries are already in key order
 	private class SortedKey implements Iterable<Pair<T, Long>> {
+		private boolean revert;
 		private List<Pair<T, Long>> data;
 
 		public SortedKey() {
@@ -74,21 +82,22 @@ public class Counter<T extends Comparable<T>> implements Iterable<T>, Serializab
 
 		public SortedKey(boolean revert) {
 			super();
-			data = new ArrayList<>();
-			for (Entry<T, MutableLong> e : cnt.entrySet()) {
-				data.add(Pair.of(e.getKey(), e.getValue().val));
-			}
-			Collections.sort(data, new Comparator<Pair<T, Long>>() {
-				@Override
-				public int compare(Pair<T, Long> o1, Pair<T, Long> o2) {
-					return revert ? o2.compareTo(o1) : o1.compareTo(o2);
+			this.revert = revert;
+		}
+
+		private synchronized List<Pair<T, Long>> getData() {
+			if (data == null) {
+				data = entries();
+				if (revert) {
+					Collections.reverse(data);
 				}
-			});
+			}
+			return data;
 		}
 
 		@Override
 		public Iterator<Pair<T, Long>> iterator() {
-			return data.iterator();
+			return getData().iterator();
 		}
 	}
 
@@ -131,22 +140,17 @@ public class Counter<T extends Comparable<T>> implements Iterable<T>, Serializab
 	}
 
 	public synchronized Counter<T> add(T d) {
-		MutableLong initValue = new MutableLong(1);
-		MutableLong oldValue = cnt.put(d, initValue);
-
-		if (oldValue != null) {
-			initValue.set(oldValue.get() + 1);
-		}
-
-		return this;
+		return add(d, 1);
 	}
 
+	// only a new key allocates
 	public synchronized Counter<T> add(T d, long nb) {
-		MutableLong initValue = new MutableLong(nb);
-		MutableLong oldValue = cnt.put(d, initValue);
+		MutableLong value = cnt.get(d);
 
-		if (oldValue != null) {
-			initValue.set(oldValue.get() + nb);
+		if (value == null) {
+			cnt.put(d, new MutableLong(nb));
+		} else {
+			value.set(value.get() + nb);
 		}
 
 		return this;
@@ -163,6 +167,14 @@ public class Counter<T extends Comparable<T>> implements Iterable<T>, Serializab
 		cnt.clear();
 	}
 
+	private synchronized List<Pair<T, Long>> entries() {
+		List<Pair<T, Long>> data = new ArrayList<>(cnt.size());
+		for (Entry<T, MutableLong> e : cnt.entrySet()) {
+			data.add(Pair.of(e.getKey(), e.getValue().val));
+		}
+		return data;
+	}
+
 	public Counter<T> copy() {
 		Counter<T> cp = new Counter<>();
 		cp.add(this);
@@ -268,12 +280,12 @@ public class Counter<T extends Comparable<T>> implements Iterable<T>, Serializab
 	}
 
 	public void keepTopKOrSet(int k, Set<T> keys) {
-		SortedCount sc = new SortedCount(true);
+		List<Pair<T, Long>> data = new SortedCount(true).getData();
 		int n = Math.min(k, cnt.size());
 
 		Set<T> toRemove = new HashSet<>();
-		for (int i = n; i < sc.data.size(); i++) {
-			toRemove.add(sc.data.get(i).getKey());
+		for (int i = n; i < data.size(); i++) {
+			toRemove.add(data.get(i).getKey());
 		}
 
 		if (keys != null) {
@@ -0,0 +1,343 @@
+package name.herve.dupedir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+public class DirectoryScanner {
+	public interface ChangeHandler {
+		void added(String dir, String name, long size);
+
+		default void dirAdded(String dir) {
+		}
+
+		void removed(String dir, String name, long size);
+	}
+
+	public interface FileHandler {
+		void file(Path file, long size);
+	}
+
+	private class DirTask extends RecursiveAction {
+		private static final long serialVersionUID = -2707826153460446530L;
+
+		private Path dir;
+
+		public DirTask(Path dir) {
+			super();
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			List<Path> subDirs = new ArrayList<>();
+			List<Path> files = new ArrayList<>();
+			List<BasicFileAttributes> filesAttrs = new ArrayList<>();
+			list(dir, subDirs, files, filesAttrs);
+
+			nbDirs.incrementAndGet();
+			nbFiles.addAndGet(files.size());
+			// the size comes from the attributes already read to tell files and directories apart
+			for (int i = 0; i < files.size(); i++) {
+				handler.file(files.get(i), filesAttrs.get(i).size());
+			}
+			List<DirTask> subTasks = new ArrayList<>();
+			for (Path sub : subDirs) {
+				subTasks.add(new DirTask(sub));
+			}
+			invokeAll(subTasks);
+		}
+	}
+
+	// only lists again the directories whose mtime changed since the snapshot, and reports the differences
+	private class RefreshTask extends RecursiveAction {
+		private static final long serialVersionUID = 4212331961470528371L;
+
+		private Path dir;
+		// descend into the known subdirectories too, or only into the new ones
+		private boolean deep;
+		// list the directory again even if its mtime did not change
+		private boolean force;
+
+		public RefreshTask(Path dir, boolean deep, boolean force) {
+			super();
+			this.dir = dir;
+			this.deep = deep;
+			this.force = force;
+		}
+
+		@Override
+		protected void compute() {
+			String key = dir.toString();
+			ScanSnapshot.DirRecord old = snapshot.get(key);
+			long mtime;
+			try {
+				mtime = HashCache.mtime(Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+			} catch (NoSuchFileException e) {
+				snapshot.remove(key, (d, name, size) -> changes.removed(d, name, size));
+				return;
+			} catch (IOException e) {
+				error(dir, e);
+				return;
+			}
+			nbDirs.incrementAndGet();
+
+			String[] subDirNames;
+			if (!force && (old != null) && (old.getMtime() == mtime)) {
+				subDirNames = old.getSubDirs();
+				nbFiles.addAndGet(old.getFileNames().length);
+			} else {
+				if (old == null) {
+					// before listing it, so that a watcher misses nothing created meanwhile
+					changes.dirAdded(key);
+				}
+				List<Path> subDirs = new ArrayList<>();
+				List<Path> files = new ArrayList<>();
+				List<BasicFileAttributes> filesAttrs = new ArrayList<>();
+				if (!list(dir, subDirs, files, filesAttrs)) {
+					return;
+				}
+				nbRelistedDirs.incrementAndGet();
+				nbFiles.addAndGet(files.size());
+
+				subDirNames = new String[subDirs.size()];
+				for (int i = 0; i < subDirNames.length; i++) {
+					subDirNames[i] = subDirs.get(i).getFileName().toString();
+				}
+				String[] fileNames = new String[files.size()];
+				long[] fileSizes = new long[files.size()];
+				for (int i = 0; i < fileNames.length; i++) {
+					fileNames[i] = files.get(i).getFileName().toString();
+					fileSizes[i] = filesAttrs.get(i).size();
+				}
+				diff(key, old, subDirNames, fileNames, fileSizes);
+				// a directory modified in the same tick as the scan start may change again without changing its mtime
+				snapshot.put(key, new ScanSnapshot.DirRecord(FileTimes.isRacy(mtime, refreshStart) ? ScanSnapshot.RACY_MTIME : mtime, subDirNames, fileNames, fileSizes));
+			}
+
+			List<RefreshTask> subTasks = new ArrayList<>();
+			for (String sub : subDirNames) {
+				if (deep || (snapshot.get(ScanSnapshot.child(key, sub)) == null)) {
+					subTasks.add(new RefreshTask(dir.resolve(sub), deep, false));
+				}
+			}
+			invokeAll(subTasks);
+		}
+
+		private void diff(String key, ScanSnapshot.DirRecord old, String[] subDirNames, String[] fileNames, long[] fileSizes) {
+			Map<String, Long> oldFiles = new HashMap<>();
+			Set<String> oldSubDirs = new HashSet<>();
+			if (old != null) {
+				for (int i = 0; i < old.getFileNames().length; i++) {
+					oldFiles.put(old.getFileNames()[i], old.getFileSizes()[i]);
+				}
+				oldSubDirs.addAll(Arrays.asList(old.getSubDirs()));
+			}
+			for (int i = 0; i < fileNames.length; i++) {
+				Long oldSize = oldFiles.remove(fileNames[i]);
+				if ((oldSize == null) || (oldSize != fileSizes[i])) {
+					if (oldSize != null) {
+						changes.removed(key, fileNames[i], oldSize);
+					}
+					changes.added(key, fileNames[i], fileSizes[i]);
+				}
+			}
+			for (Map.Entry<String, Long> e : oldFiles.entrySet()) {
+				changes.removed(key, e.getKey(), e.getValue());
+			}
+			oldSubDirs.removeAll(Arrays.asList(subDirNames));
+			for (String sub : oldSubDirs) {
+				snapshot.remove(ScanSnapshot.child(key, sub), (d, name, size) -> changes.removed(d, name, size));
+			}
+		}
+	}
+
+	private static BasicFileAttributes readAttributes(SecureDirectoryStream<Path> secure, Path child) throws IOException {
+		if (secure != null) {
+			// stat relative to the already opened directory, no need to resolve the full path again
+			return secure.getFileAttributeView(child.getFileName(), BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+		}
+		return Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+	}
+
+	private int parallelism;
+	private int maxOpenDirs;
+	private Semaphore openDirs;
+	private FileHandler handler;
+	private ScanSnapshot snapshot;
+	private ChangeHandler changes;
+	private BiConsumer<Path, Exception> errorHandler;
+	private AtomicLong nbDirs;
+	private AtomicLong nbFiles;
+	private AtomicLong nbErrors;
+	private AtomicLong nbRelistedDirs;
+	private long refreshStart;
+
+	public DirectoryScanner(int parallelism) {
+		this(parallelism, parallelism);
+	}
+
+	public DirectoryScanner(int parallelism, int maxOpenDirs) {
+		super();
+		this.parallelism = Math.max(1, parallelism);
+		this.maxOpenDirs = Math.max(1, maxOpenDirs);
+		openDirs = new Semaphore(this.maxOpenDirs);
+		errorHandler = (p, e) -> Log.log(true, p + " : " + e.getClass().getName() + " : " + e.getMessage());
+		nbDirs = new AtomicLong();
+		nbFiles = new AtomicLong();
+		nbErrors = new AtomicLong();
+		nbRelistedDirs = new AtomicLong();
+	}
+
+	private void error(Path p, Exception e) {
+		nbErrors.incrementAndGet();
+		errorHandler.accept(p, e);
+	}
+
+	public int getMaxOpenDirs() {
+		return maxOpenDirs;
+	}
+
+	public long getNbDirs() {
+		return nbDirs.get();
+	}
+
+	public long getNbErrors() {
+		return nbErrors.get();
+	}
+
+	public long getNbFiles() {
+		return nbFiles.get();
+	}
+
+	public long getNbRelistedDirs() {
+		return nbRelistedDirs.get();
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	// the stream is fully consumed and closed before descending, so at most maxOpenDirs descriptors are held at any time
+	private boolean list(Path dir, List<Path> subDirs, List<Path> files, List<BasicFileAttributes> filesAttrs) {
+		openDirs.acquireUninterruptibly();
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+			SecureDirectoryStream<Path> secure = children instanceof SecureDirectoryStream ? (SecureDirectoryStream<Path>) children : null;
+			for (Path child : children) {
+				BasicFileAttributes attrs = null;
+				try {
+					attrs = readAttributes(secure, child);
+				} catch (IOException e) {
+					error(child, e);
+					continue;
+				}
+				if (attrs.isSymbolicLink()) {
+					continue;
+				}
+				if (attrs.isDirectory()) {
+					subDirs.add(child);
+				} else if (attrs.isRegularFile()) {
+					files.add(child);
+					filesAttrs.add(attrs);
+				}
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			error(dir, e);
+			return false;
+		} finally {
+			openDirs.release();
+		}
+	}
+
+	// brings the snapshot up to date with the directories below p, the files added and removed since are reported to c
+	public void refresh(Path p, ScanSnapshot s, ChangeHandler c) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		if (!attrs.isDirectory()) {
+			throw new IOException("not a directory : " + p);
+		}
+		refresh(List.of(new RefreshTask(p, true, false)), s, c);
+	}
+
+	private synchronized void refresh(List<RefreshTask> tasks, ScanSnapshot s, ChangeHandler c) {
+		snapshot = s;
+		changes = c;
+		refreshStart = FileTimes.now();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = -1184404419870745001L;
+
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		} finally {
+			pool.shutdown();
+			snapshot = null;
+			changes = null;
+		}
+	}
+
+	// lists the given directories again, whatever their mtime, and the directories below them that are not in the snapshot yet
+	public void refreshDirs(Collection<Path> dirs, ScanSnapshot s, ChangeHandler c) {
+		List<RefreshTask> tasks = new ArrayList<>();
+		for (Path dir : dirs) {
+			tasks.add(new RefreshTask(dir, false, true));
+		}
+		refresh(tasks, s, c);
+	}
+
+	public void scan(Path p, Consumer<Path> m) throws IOException {
+		scan(p, (f, size) -> m.accept(f));
+	}
+
+	public synchronized void scan(Path p, FileHandler h) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		if (attrs.isSymbolicLink()) {
+			return;
+		}
+		if (attrs.isRegularFile()) {
+			nbFiles.incrementAndGet();
+			h.file(p, attrs.size());
+			return;
+		}
+		if (!attrs.isDirectory()) {
+			return;
+		}
+
+		handler = h;
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new DirTask(p));
+		} finally {
+			pool.shutdown();
+			handler = null;
+		}
+	}
+
+	public void setErrorHandler(BiConsumer<Path, Exception> errorHandler) {
+		this.errorHandler = errorHandler;
+	}
+}
@@ -0,0 +1,215 @@
+package name.herve.dupedir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class DirectoryTrie {
+	private static final char SEPARATOR = ListingFormat.SEPARATOR;
+
+	// (parent id + 1, segment id) -> directory id, roots have no parent
+	private static long childKey(int parent, int segment) {
+		return ((long) (parent + 1) << 32) | segment;
+	}
+
+	private HashMap<String, Integer> segmentIds;
+	private List<String> segments;
+	private LongIntHashMap children;
+	private int[] parents;
+	private int[] dirSegments;
+	private int[] depths;
+	private int size;
+
+	// the last directory resolved, so that consecutive paths only walk the segments they do not share
+	private String lastPath;
+	private int[] lastIds;
+	private int[] lastEnds;
+	private int lastDepth;
+
+	public DirectoryTrie() {
+		super();
+		segmentIds = new HashMap<>();
+		segments = new ArrayList<>();
+		children = new LongIntHashMap();
+		parents = new int[1024];
+		dirSegments = new int[1024];
+		depths = new int[1024];
+		size = 0;
+		lastIds = new int[64];
+		lastEnds = new int[64];
+		lastDepth = -1;
+	}
+
+	private int child(int parent, String segment, boolean create) {
+		Integer segmentId = segmentIds.get(segment);
+		if (segmentId == null) {
+			if (!create) {
+				return -1;
+			}
+			segmentId = segments.size();
+			segmentIds.put(segment, segmentId);
+			segments.add(segment);
+		}
+		long key = childKey(parent, segmentId);
+		int id = children.get(key, -1);
+		if ((id < 0) && create) {
+			id = size++;
+			if (id == parents.length) {
+				parents = Arrays.copyOf(parents, 2 * id);
+				dirSegments = Arrays.copyOf(dirSegments, 2 * id);
+				depths = Arrays.copyOf(depths, 2 * id);
+			}
+			parents[id] = parent;
+			dirSegments[id] = segmentId;
+			depths[id] = parent < 0 ? 0 : depths[parent] + 1;
+			children.put(key, id);
+		}
+		return id;
+	}
+
+	// in the order of their paths compared segment by segment, without building them : an ancestor comes before the directories below it
+	public int compare(int id1, int id2) {
+		if (id1 == id2) {
+			return 0;
+		}
+		int a1 = id1;
+		int a2 = id2;
+		while (depths[a1] > depths[a2]) {
+			a1 = parents[a1];
+		}
+		while (depths[a2] > depths[a1]) {
+			a2 = parents[a2];
+		}
+		if (a1 == a2) {
+			return Integer.compare(depths[id1], depths[id2]);
+		}
+		// up to the children of the common ancestor, or to the roots, whose segments differ
+		while (parents[a1] != parents[a2]) {
+			a1 = parents[a1];
+			a2 = parents[a2];
+		}
+		return segments.get(dirSegments[a1]).compareTo(segments.get(dirSegments[a2]));
+	}
+
+	public int find(String path) {
+		if (path.isEmpty()) {
+			return -1;
+		}
+		int end = rootEnd(path);
+		int id = child(-1, path.substring(0, end), false);
+		int start = end;
+		while ((id >= 0) && (start < path.length())) {
+			end = segmentEnd(path, start);
+			id = child(id, path.substring(start, end), false);
+			start = end + 1;
+		}
+		return id;
+	}
+
+	public int getDepth(int id) {
+		return depths[id];
+	}
+
+	public int[] getDepths() {
+		return depths;
+	}
+
+	public int getNbSegments() {
+		return segments.size();
+	}
+
+	public int getOrCreate(String path) {
+		// resume from the deepest directory shared with the previous path
+		int depth = -1;
+		if (lastPath != null) {
+			int max = Math.min(lastPath.length(), path.length());
+			int common = 0;
+			while ((common < max) && (lastPath.charAt(common) == path.charAt(common))) {
+				common++;
+			}
+			while ((depth < lastDepth) && (lastEnds[depth + 1] <= common)) {
+				int end = lastEnds[depth + 1];
+				// the root keeps its separator, without one it is the whole path : "foo" is not the root of "foobar"
+				boolean boundary = depth < 0 ? (end == path.length()) || (path.charAt(end - 1) == SEPARATOR) : (end == path.length()) || (path.charAt(end) == SEPARATOR);
+				if (!boundary) {
+					break;
+				}
+				depth++;
+			}
+		}
+
+		int id;
+		int start;
+		if (depth < 0) {
+			int end = rootEnd(path);
+			id = child(-1, path.substring(0, end), true);
+			depth = 0;
+			lastIds[0] = id;
+			lastEnds[0] = end;
+			start = end;
+		} else {
+			id = lastIds[depth];
+			start = depth == 0 ? lastEnds[0] : lastEnds[depth] + 1;
+		}
+		while (start < path.length()) {
+			int end = segmentEnd(path, start);
+			id = child(id, path.substring(start, end), true);
+			depth++;
+			if (depth == lastIds.length) {
+				lastIds = Arrays.copyOf(lastIds, 2 * depth);
+				lastEnds = Arrays.copyOf(lastEnds, 2 * depth);
+			}
+			lastIds[depth] = id;
+			lastEnds[depth] = end;
+			start = end + 1;
+		}
+		lastPath = path;
+		lastDepth = depth;
+		return id;
+	}
+
+	public int getParent(int id) {
+		return parents[id];
+	}
+
+	public int[] getParents() {
+		return parents;
+	}
+
+	public String getPath(int id) {
+		int depth = depths[id];
+		String[] parts = new String[depth + 1];
+		for (int d = depth; d >= 0; d--) {
+			parts[d] = segments.get(dirSegments[id]);
+			id = parents[id];
+		}
+		StringBuilder sb = new StringBuilder(parts[0]);
+		for (int d = 1; d <= depth; d++) {
+			if (sb.charAt(sb.length() - 1) != SEPARATOR) {
+				sb.append(SEPARATOR);
+			}
+			sb.append(parts[d]);
+		}
+		return sb.toString();
+	}
+
+	public String getSegment(int id) {
+		return segments.get(dirSegments[id]);
+	}
+
+	// the root keeps its separator ('/' or 'C:\'), like ListingFormat.getDir
+	private int rootEnd(String path) {
+		int idx = path.indexOf(SEPARATOR);
+		return idx < 0 ? path.length() : idx + 1;
+	}
+
+	private int segmentEnd(String path, int start) {
+		int idx = path.indexOf(SEPARATOR, start);
+		return idx < 0 ? path.length() : idx;
+	}
+
+	public int size() {
+		return size;
+	}
+}
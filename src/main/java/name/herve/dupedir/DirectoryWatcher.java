@@ -0,0 +1,84 @@
+package name.herve.dupedir;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class DirectoryWatcher implements Closeable {
+	private WatchService watchService;
+	private Map<WatchKey, Path> keys;
+	private long quietDelay;
+	private long maxDelay;
+	private boolean overflow;
+
+	// changes are gathered until nothing happened for quietDelay ms, or for at most maxDelay ms
+	public DirectoryWatcher(long quietDelay, long maxDelay) throws IOException {
+		super();
+		this.quietDelay = quietDelay;
+		this.maxDelay = maxDelay;
+		watchService = FileSystems.getDefault().newWatchService();
+		keys = new ConcurrentHashMap<>();
+		overflow = false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	private void collect(WatchKey key, Set<Path> changed) {
+		Path dir = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				overflow = true;
+			} else if (dir != null) {
+				// created, deleted or moved, the directory holding the entry has to be listed again
+				changed.add(dir);
+			}
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+	}
+
+	public int getNbWatched() {
+		return keys.size();
+	}
+
+	// some events were lost, the whole trees have to be checked again
+	public boolean hasOverflowed() {
+		return overflow;
+	}
+
+	public void register(Path dir) throws IOException {
+		WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		keys.put(key, dir);
+	}
+
+	// blocks until something changes, then returns the directories to list again once the burst is over
+	public Set<Path> take() throws InterruptedException {
+		Set<Path> changed = new LinkedHashSet<>();
+		overflow = false;
+		WatchKey key = watchService.take();
+		long deadline = System.currentTimeMillis() + maxDelay;
+		while (key != null) {
+			collect(key, changed);
+			long wait = Math.min(quietDelay, deadline - System.currentTimeMillis());
+			if (wait <= 0) {
+				break;
+			}
+			key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+		}
+		return changed;
+	}
+}
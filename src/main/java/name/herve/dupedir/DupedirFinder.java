@@ -1,30 +1,32 @@
 package name.herve.dupedir;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.nio.file.AccessDeniedException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
-import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import org.apache.commons.cli.CommandLine;
@@ -39,22 +41,19 @@ import org.apache.commons.cli.ParseException;
 public class DupedirFinder {
 	public class Dir {
 		private int id;
-		private Path path;
-		private long nbFiles;
-		private long nbFilesHierarchy;
-		private List<Dir> subDirs;
-		private Dir parent;
 
-		public Dir(int id, Path path) {
+		public Dir(int id) {
 			super();
 			this.id = id;
-			this.path = path;
-			nbFiles = -1;
-			nbFilesHierarchy = -1;
 		}
 
 		public void addNbFilesHierarchy(long nbFilesHierarchy) {
-			this.nbFilesHierarchy += nbFilesHierarchy;
+			DupedirFinder.this.nbFilesHierarchy[id] += nbFilesHierarchy;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof Dir) && (((Dir) obj).id == id);
 		}
 
 		public int getId() {
@@ -62,44 +61,49 @@ public class DupedirFinder {
 		}
 
 		public long getNbFiles() {
-			return nbFiles;
+			return hasStats(id) ? nbFiles[id] : -1;
 		}
 
 		public long getNbFilesHierarchy() {
-			return nbFilesHierarchy;
+			return hasStats(id) ? nbFilesHierarchy[id] : -1;
 		}
 
 		public Dir getParent() {
-			return parent;
+			int parent = dirs.getParent(id);
+			return parent >= 0 ? new Dir(parent) : null;
 		}
 
+		// rebuilt from the directory trie on each call
 		public Path getPath() {
-			return path;
+			return Paths.get(dirs.getPath(id));
 		}
 
 		public List<Dir> getSubDirs() {
+			List<Dir> subDirs = new ArrayList<>();
+			if (hasStats(id)) {
+				for (int i = childOffsets[id]; i < childOffsets[id + 1]; i++) {
+					subDirs.add(new Dir(childIds[i]));
+				}
+			}
 			return subDirs;
 		}
 
-		public void setNbFiles(long nbFiles) {
-			this.nbFiles = nbFiles;
-		}
-
-		public void setNbFilesHierarchy(long nbFilesHierarchy) {
-			this.nbFilesHierarchy = nbFilesHierarchy;
+		@Override
+		public int hashCode() {
+			return id;
 		}
 
-		public void setParent(Dir parent) {
-			this.parent = parent;
+		public void setNbFiles(long nbFiles) {
+			DupedirFinder.this.nbFiles[id] = nbFiles;
 		}
 
-		public void setSubDirs(List<Dir> subDirs) {
-			this.subDirs = subDirs;
+		public void setNbFilesHierarchy(long nbFilesHierarchy) {
+			DupedirFinder.this.nbFilesHierarchy[id] = nbFilesHierarchy;
 		}
 
 		@Override
 		public String toString() {
-			return "[" + id + "] [" + (parent == null) + "] [" + DECF.format(nbFiles) + " / " + DECF.format(nbFilesHierarchy) + "] " + path.toString();
+			return "[" + id + "] [" + (getParent() == null) + "] [" + DECF.format(getNbFiles()) + " / " + DECF.format(getNbFilesHierarchy()) + "] " + dirs.getPath(id);
 		}
 	}
 
@@ -110,28 +114,39 @@ public class DupedirFinder {
 		private int nbCommonFilesHierarchy;
 		private float maxPct;
 		private float score;
+		private int nbVerifiedFiles;
+		private long nbVerifiedBytes;
 
 		public DuplicateDir(Dir dir1, Dir dir2) {
+			this(dir1, dir2, 0, 0);
+		}
+
+		public DuplicateDir(Dir dir1, Dir dir2, int nbCommonFiles, int nbCommonFilesHierarchy) {
 			super();
 			this.dir1 = dir1;
 			this.dir2 = dir2;
-			nbCommonFiles = 0;
-			nbCommonFilesHierarchy = 0;
+			this.nbCommonFiles = nbCommonFiles;
+			this.nbCommonFilesHierarchy = nbCommonFilesHierarchy;
+			nbVerifiedFiles = -1;
+			nbVerifiedBytes = 0;
+		}
+
+		private void addVerifiedFile(long size) {
+			nbVerifiedFiles++;
+			nbVerifiedBytes += size;
+		}
+
+		private int comparePaths(DuplicateDir o) {
+			return comparePairs(dir1.getId(), dir2.getId(), o.dir1.getId(), o.dir2.getId());
 		}
 
 		private void computeScores(boolean aggregateHierarchy) {
 			if (aggregateHierarchy) {
-				maxPct = Math.min(dir1.getNbFilesHierarchy(), dir2.getNbFilesHierarchy());
-				if (maxPct > 0) {
-					maxPct = nbCommonFilesHierarchy / maxPct;
-				}
-				score = (float) Math.log10(nbCommonFilesHierarchy) + maxPct;
+				maxPct = computeMaxPct(nbCommonFilesHierarchy, dir1.getNbFilesHierarchy(), dir2.getNbFilesHierarchy());
+				score = computeScore(nbCommonFilesHierarchy, maxPct);
 			} else {
-				maxPct = Math.min(dir1.getNbFiles(), dir2.getNbFiles());
-				if (maxPct > 0) {
-					maxPct = nbCommonFiles / maxPct;
-				}
-				score = (float) Math.log10(nbCommonFiles) + maxPct;
+				maxPct = computeMaxPct(nbCommonFiles, dir1.getNbFiles(), dir2.getNbFiles());
+				score = computeScore(nbCommonFiles, maxPct);
 			}
 		}
 
@@ -155,10 +170,26 @@ public class DupedirFinder {
 			return nbCommonFilesHierarchy;
 		}
 
+		public long getNbVerifiedBytes() {
+			return nbVerifiedBytes;
+		}
+
+		public int getNbVerifiedFiles() {
+			return nbVerifiedFiles;
+		}
+
+		public long getPairKey() {
+			return LongIntHashMap.pairKey(dir1.getId(), dir2.getId());
+		}
+
 		public float getScore() {
 			return score;
 		}
 
+		public boolean isVerified() {
+			return nbVerifiedFiles >= 0;
+		}
+
 		public void incNbCommonFiles() {
 			nbCommonFiles++;
 		}
@@ -170,149 +201,797 @@ public class DupedirFinder {
 		@Override
 		public String toString() {
 			return "{" + PCTF.format(score) + "} " + PCTF.format(100 * maxPct) + "% [" 
-					+ DECF.format(nbCommonFiles) + " / " + DECF.format(nbCommonFilesHierarchy) + "] - [" 
+					+ DECF.format(nbCommonFiles) + " / " + DECF.format(nbCommonFilesHierarchy) + "] - " 
+					+ (isVerified() ? "<" + DECF.format(nbVerifiedFiles) + " identical, " + DECF.format(nbVerifiedBytes) + " bytes> - " : "") + "[" 
 					+ DECF.format(dir1.getNbFiles()) + " / " + DECF.format(dir1.getNbFilesHierarchy()) + "] " + dir1.getPath() + " - [" 
 					+ DECF.format(dir2.getNbFiles()) + " / " + DECF.format(dir2.getNbFilesHierarchy()) + "] " + dir2.getPath();
 		}
 	}
 
+	private interface CountingTask {
+		void count(ShardedLongIntHashMap partial);
+	}
+
+	// pair counts kept up to date while files are added to and removed from the index, instead of counting everything again
+	public class LiveDuplicates {
+		private boolean aggregateHierarchy;
+		private ShardedLongIntHashMap candidates;
+		private ShardedLongIntHashMap scored;
+		private int nbDirs;
+		// chosen once from the pair budget, the changes are counted with the same cutoff as the initial pairs
+		private int cutoff;
+
+		private LiveDuplicates(boolean aggregateHierarchy) {
+			super();
+			this.aggregateHierarchy = aggregateHierarchy;
+			freezeIndex();
+			cutoff = pairBudget > 0 ? planPairs() : maxNbDirForFile;
+			candidates = countPairs(cutoff);
+			scored = aggregateHierarchy ? aggregateHierarchy(candidates) : candidates;
+			nbDirs = dirs.size();
+		}
+
+		private void addPair(int d1, int d2, int delta) {
+			long k = LongIntHashMap.pairKey(d1, d2);
+			candidates.addTo(k, delta);
+			if (aggregateHierarchy) {
+				aggregateHierarchy(k, delta, scored);
+			}
+		}
+
+		private void addPairs(int[] dirIds, int delta) {
+			for (int i = 0; i < (dirIds.length - 1); i++) {
+				for (int j = i + 1; j < dirIds.length; j++) {
+					addPair(dirIds[i], dirIds[j], delta);
+				}
+			}
+		}
+
+		private boolean isCounted(int nbDirsForName) {
+			return (nbDirsForName > 1) && (nbDirsForName <= cutoff);
+		}
+
+		// called once the directory has been added to (delta 1) or removed from (delta -1) the posting list of the name
+		private void indexChanged(int nameId, int dirId, int delta) {
+			growStats();
+			nbFiles[dirId] += delta;
+			for (int a = dirId; a >= 0; a = parentIds[a]) {
+				nbFilesHierarchy[a] += delta;
+			}
+
+			int size = fileToDirs.size(nameId);
+			boolean counted = isCounted(size);
+			boolean wasCounted = isCounted(size - delta);
+			if (!counted && !wasCounted) {
+				return;
+			}
+			int[] current = new int[size];
+			for (int i = 0; i < size; i++) {
+				current[i] = fileToDirs.get(nameId, i);
+			}
+			if (counted && wasCounted) {
+				// only the pairs with the directory change
+				boolean skip = delta > 0;
+				for (int other : current) {
+					if (skip && (other == dirId)) {
+						skip = false;
+						continue;
+					}
+					addPair(dirId, other, delta);
+				}
+			} else if (counted) {
+				addPairs(current, 1);
+			} else {
+				// the name is not counted anymore, all the pairs it gave are taken back
+				int[] previous;
+				if (delta > 0) {
+					previous = new int[size - 1];
+					int p = 0;
+					boolean skip = true;
+					for (int other : current) {
+						if (skip && (other == dirId)) {
+							skip = false;
+						} else {
+							previous[p++] = other;
+						}
+					}
+				} else {
+					previous = Arrays.copyOf(current, size + 1);
+					previous[size] = dirId;
+				}
+				addPairs(previous, -1);
+			}
+		}
+
+		// new directories only get their totals here, their place in the children lists waits for the next ranking
+		private void growStats() {
+			parentIds = dirs.getParents();
+			depths = dirs.getDepths();
+			int n = dirs.size();
+			if (n > nbFiles.length) {
+				int capacity = Math.max(n, 2 * nbFiles.length);
+				nbFiles = Arrays.copyOf(nbFiles, capacity);
+				nbFilesHierarchy = Arrays.copyOf(nbFilesHierarchy, capacity);
+				int last = childOffsets[childOffsets.length - 1];
+				int from = childOffsets.length;
+				childOffsets = Arrays.copyOf(childOffsets, capacity + 1);
+				Arrays.fill(childOffsets, from, childOffsets.length, last);
+			}
+		}
+
+		public int getCutoff() {
+			return cutoff;
+		}
+
+		public Ranking rank(int top) {
+			if (dirs.size() != nbDirs) {
+				growStats();
+				buildChildren(dirs.size());
+				nbDirs = dirs.size();
+			}
+			Ranking ranking = new Ranking(aggregateHierarchy, candidates, scored);
+			ranking.rank(top);
+			return ranking;
+		}
+	}
+
+	public class Ranking {
+		private boolean aggregateHierarchy;
+		private ShardedLongIntHashMap candidates;
+		private ShardedLongIntHashMap scored;
+		private List<DuplicateDir> top;
+		private long nbDuplicates;
+
+		private Ranking(boolean aggregateHierarchy, ShardedLongIntHashMap candidates, ShardedLongIntHashMap scored) {
+			super();
+			this.aggregateHierarchy = aggregateHierarchy;
+			this.candidates = candidates;
+			this.scored = scored;
+			nbDuplicates = 0;
+		}
+
+		private DuplicateDir createDuplicate(long k, int nb) {
+			Dir d1 = new Dir(LongIntHashMap.pairKeyFirst(k));
+			Dir d2 = new Dir(LongIntHashMap.pairKeySecond(k));
+			DuplicateDir dup = aggregateHierarchy ? new DuplicateDir(d1, d2, candidates.get(k), nb) : new DuplicateDir(d1, d2, nb, 0);
+			dup.computeScores(aggregateHierarchy);
+			return dup;
+		}
+
+		public long getNbDuplicates() {
+			return nbDuplicates;
+		}
+
+		public List<DuplicateDir> getTop() {
+			return top;
+		}
+
+		private void rank(int nbTop) {
+			if (nbTop == Integer.MAX_VALUE) {
+				top = new ArrayList<>();
+				scored.forEach((k, nb) -> {
+					if (nb >= minNbCommonFiles) {
+						top.add(createDuplicate(k, nb));
+					}
+				});
+				nbDuplicates = top.size();
+				Collections.sort(top, RANKING);
+				return;
+			}
+
+			// the head of the heap is the worst of the current top, candidates are only materialized when they beat it, ties on their paths
+			PriorityQueue<DuplicateDir> heap = new PriorityQueue<>(Math.max(1, Math.min(nbTop, 1 << 16)), RANKING.reversed());
+			ShardedLongIntHashMap.Cursor c = scored.cursor();
+			while (c.next()) {
+				int nb = c.value();
+				if (nb < minNbCommonFiles) {
+					continue;
+				}
+				nbDuplicates++;
+				long k = c.key();
+				if (heap.size() < nbTop) {
+					heap.add(createDuplicate(k, nb));
+				} else if (nbTop > 0) {
+					DuplicateDir worst = heap.peek();
+					int cmp = Float.compare(worst.getScore(), score(k, nb));
+					if ((cmp < 0) || ((cmp == 0) && (comparePairs(LongIntHashMap.pairKeyFirst(k), LongIntHashMap.pairKeySecond(k), worst.getDir1().getId(), worst.getDir2().getId()) < 0))) {
+						heap.poll();
+						heap.add(createDuplicate(k, nb));
+					}
+				}
+			}
+			top = new ArrayList<>(heap);
+			Collections.sort(top, RANKING);
+		}
+
+		// the qualifying duplicates ranked after the top ones, in no particular order
+		public Iterator<DuplicateDir> rest() {
+			DuplicateDir last = top.isEmpty() ? null : top.get(top.size() - 1);
+			ShardedLongIntHashMap.Cursor c = scored.cursor();
+			return new Iterator<DuplicateDir>() {
+				private DuplicateDir next = advance();
+
+				private DuplicateDir advance() {
+					while (c.next()) {
+						if (c.value() >= minNbCommonFiles) {
+							DuplicateDir dup = createDuplicate(c.key(), c.value());
+							if ((last == null) || (RANKING.compare(dup, last) > 0)) {
+								return dup;
+							}
+						}
+					}
+					return null;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+
+				@Override
+				public DuplicateDir next() {
+					if (next == null) {
+						throw new NoSuchElementException();
+					}
+					DuplicateDir res = next;
+					next = advance();
+					return res;
+				}
+			};
+		}
+
+		private float score(long k, int nb) {
+			int id1 = LongIntHashMap.pairKeyFirst(k);
+			int id2 = LongIntHashMap.pairKeySecond(k);
+			long[] nbf = aggregateHierarchy ? nbFilesHierarchy : nbFiles;
+			return computeScore(nb, computeMaxPct(nb, nbf[id1], nbf[id2]));
+		}
+	}
+
+	// best score first, ties broken on the paths so that the order is total and does not depend on the directory ids, which a parallel
+	// scan assigns in no particular order
+	public static final Comparator<DuplicateDir> RANKING = new Comparator<DuplicateDir>() {
+		@Override
+		public int compare(DuplicateDir o1, DuplicateDir o2) {
+			int cmp = Float.compare(o2.getScore(), o1.getScore());
+			if (cmp == 0) {
+				cmp = o1.comparePaths(o2);
+			}
+			return cmp;
+		}
+	};
+
 	private static DecimalFormat DECF = new DecimalFormat("###,###");
 	private static DecimalFormat PCTF = new DecimalFormat("00.00");
+	private static final int PAIRS_BATCH = 1024;
+	private static final int HIERARCHY_BATCH = 4096;
+	private static final long WATCH_QUIET_DELAY = 1000;
+	// never found in a file name
+	private static final char SIZE_SEPARATOR = '\0';
+
+	private static float computeMaxPct(int nbCommon, long nbFiles1, long nbFiles2) {
+		float maxPct = Math.min(nbFiles1, nbFiles2);
+		if (maxPct > 0) {
+			maxPct = nbCommon / maxPct;
+		}
+		return maxPct;
+	}
+
+	private static float computeScore(int nbCommon, float maxPct) {
+		return (float) Math.log10(nbCommon) + maxPct;
+	}
 
 	public static void main(String[] args) {
 		new DupedirFinder().start(args);
 	}
 
+	// files only match when both their names and sizes are equal, unless the size is unknown
+	static String matchingKey(String name, long size) {
+		return size < 0 ? name : name + SIZE_SEPARATOR + size;
+	}
+
 	private Options options;
 
-	private HashMap<String, List<Dir>> fileToDirs;
-	private int idGenerator;
-	private TreeMap<String, Dir> allDirs;
-	private TreeSet<String> allFiles;
-	private Counter<String> nbFilePerDir;
+	private HashMap<String, Integer> nameIds;
+	private PostingLists fileToDirs;
+	private DirectoryTrie dirs;
+	private IntCounter nbFilePerDir;
+	// the other way round, built when duplicates are verified
+	private PostingLists dirToNames;
+	private LiveDuplicates live;
+
+	// per directory id, parents and depths are the trie arrays, the others are filled by hierarchyStats
+	private int[] parentIds;
+	private int[] childOffsets;
+	private int[] childIds;
+	private int[] depths;
+	private long[] nbFiles;
+	private long[] nbFilesHierarchy;
 
 	private int minNbCommonFiles = 3;
 	private int maxNbDirForFile = 50;
+	// cutoff of the last pair counting, chosen from the pair budget when there is one
+	private int countedNbDirForFile = -1;
+	private int nbThreads = 1;
+	private int maxOpenDirs = -1;
+	private long listingMemory = 256L << 20;
+	private boolean matchSizes = false;
+	private boolean approximate = false;
+	private int lshBands = 20;
+	private int lshRows = 4;
+	private int lshMaxBucket = MinHashLsh.DEFAULT_MAX_BUCKET_SIZE;
+	private long pairBudget = -1;
+	private Path hashCache = null;
+
+	private PhaseMetrics metrics;
 
 	public DupedirFinder() {
 		super();
+		metrics = new PhaseMetrics();
 	}
 
 	public void addFileToIndex(Path file) {
-		String name = file.getFileName().toString();
-		List<Dir> dirs = fileToDirs.get(name);
-		if (dirs == null) {
-			dirs = new ArrayList<>();
-			fileToDirs.put(name, dirs);
-		}
+		addFileToIndex(file, ListingFormat.UNKNOWN_SIZE);
+	}
+
+	public synchronized void addFileToIndex(Path file, long size) {
 		Path dirPath = file.getParent();
-		if (dirPath != null) {
-			Dir dir = getDir(dirPath);
-			if (dirs.add(dir)) {
-				nbFilePerDir.add(dir.getPath().toString());
-			}
+		addFileToIndex(dirPath == null ? null : dirPath.toString(), file.getFileName().toString(), size);
+	}
 
-			dirPath = dirPath.getParent();
-			while (dirPath != null) {
-				dir = getDir(dirPath);
-				dirPath = dirPath.getParent();
+	private void addFileToIndex(int dirId, String name) {
+		Integer nameId = nameIds.get(name);
+		if (nameId == null) {
+			nameId = nameIds.size();
+			nameIds.put(name, nameId);
+		}
+		if (dirId >= 0) {
+			fileToDirs.add(nameId, dirId);
+			nbFilePerDir.add(dirId);
+			dirToNames = null;
+			if (live != null) {
+				live.indexChanged(nameId, dirId, 1);
 			}
 		}
 	}
 
-	private DuplicateDir getDuplicate(Map<String, DuplicateDir> candidates, Dir diri, Dir dirj) {
-		int id1 = diri.getId();
-		int id2 = dirj.getId();
-		if (id1 > id2) {
-			id1 = id2;
-			id2 = diri.getId();
+	public void addFileToIndex(String dirPath, String name) {
+		addFileToIndex(dirPath, name, ListingFormat.UNKNOWN_SIZE);
+	}
+
+	public synchronized void addFileToIndex(String dirPath, String name, long size) {
+		addFileToIndex(dirPath == null ? -1 : dirs.getOrCreate(dirPath), matchSizes ? matchingKey(name, size) : name);
+	}
+
+	// the names are already matching keys
+	public synchronized void addFilesToIndex(String dirPath, List<String> names) {
+		int dirId = dirPath == null ? -1 : dirs.getOrCreate(dirPath);
+		for (String name : names) {
+			addFileToIndex(dirId, name);
 		}
-		String k = id1 + "-" + id2;
-		DuplicateDir dup = candidates.get(k);
-		if (dup == null) {
-			dup = new DuplicateDir(diri, dirj);
-			candidates.put(k, dup);
+	}
+
+	private void aggregateHierarchy(long k, int nb, ShardedLongIntHashMap hierarchyCandidates) {
+		int d1 = LongIntHashMap.pairKeyFirst(k);
+		int d2 = LongIntHashMap.pairKeySecond(k);
+		int lca = lowestCommonAncestor(d1, d2);
+		if ((lca == d1) || (lca == d2)) {
+			return;
+		}
+		// every ancestor of d1 below the common ancestor is unrelated to every ancestor of d2 below it, above it they are all related
+		for (int a1 = d1; a1 != lca; a1 = parentIds[a1]) {
+			for (int a2 = d2; a2 != lca; a2 = parentIds[a2]) {
+				hierarchyCandidates.addTo(LongIntHashMap.pairKey(a1, a2), nb);
+			}
 		}
-		return dup;
 	}
 
-	public List<DuplicateDir> findDuplicates(boolean aggregateHierarchy) {
-		Log.log("Finding duplicates over " + DECF.format(fileToDirs.size()) + " file names in " + DECF.format(allDirs.size()) + " directories");
-		Map<String, DuplicateDir> candidates = new HashMap<>();
-
-		for (Entry<String, List<Dir>> e : fileToDirs.entrySet()) {
-			List<Dir> dirs = e.getValue();
-			if ((dirs.size() > 1) && (dirs.size() <= maxNbDirForFile)) {
-				// Log.log("[" + e.getValue().size() + "] " + e.getKey());
-				for (int i = 0; i < (dirs.size() - 1); i++) {
-					Dir diri = dirs.get(i);
-					for (int j = i + 1; j < dirs.size(); j++) {
-						Dir dirj = dirs.get(j);
-						DuplicateDir dup = getDuplicate(candidates, diri, dirj);
-						dup.incNbCommonFiles();
-					}
-				}
+	private ShardedLongIntHashMap aggregateHierarchy(ShardedLongIntHashMap candidates) {
+		AtomicInteger nextShard = new AtomicInteger();
+		return countInParallel(partial -> {
+			int s;
+			while ((s = nextShard.getAndIncrement()) < candidates.getNbShards()) {
+				candidates.getShard(s).forEach((k, nb) -> aggregateHierarchy(k, nb, partial));
 			}
+		});
+	}
+
+	private void buildChildren(int n) {
+		int[] offsets = new int[Math.max(n, nbFiles.length) + 1];
+		for (int id = 0; id < n; id++) {
+			if (parentIds[id] >= 0) {
+				offsets[parentIds[id] + 1]++;
+			}
+		}
+		for (int id = 0; id < (offsets.length - 1); id++) {
+			offsets[id + 1] += offsets[id];
+		}
+		int[] children = new int[offsets[n]];
+		int[] fill = new int[n];
+		for (int id = 0; id < n; id++) {
+			int parent = parentIds[id];
+			if (parent >= 0) {
+				children[offsets[parent] + fill[parent]++] = id;
+			}
+		}
+		childIds = children;
+		childOffsets = offsets;
+	}
+
+	// pairs in path order, whatever the order of their directories and their ids
+	private int comparePairs(int a1, int b1, int a2, int b2) {
+		if (dirs.compare(a1, b1) > 0) {
+			int t = a1;
+			a1 = b1;
+			b1 = t;
 		}
+		if (dirs.compare(a2, b2) > 0) {
+			int t = a2;
+			a2 = b2;
+			b2 = t;
+		}
+		int cmp = dirs.compare(a1, a2);
+		return cmp != 0 ? cmp : dirs.compare(b1, b2);
+	}
 
-		if (aggregateHierarchy) {
-			List<DuplicateDir> initialCandidates = new ArrayList<>(candidates.values());
-			for (DuplicateDir dup : initialCandidates) {
-				Dir d1 = dup.getDir1();
-				while (d1 != null) {
-					Dir d2 = dup.getDir2();
-					while (d2 != null) {
-						if (d2.getPath().startsWith(d1.getPath()) || d1.getPath().startsWith(d2.getPath())) {
-							d2 = null;
+	// runs the task on each thread with its own sharded table, then merges the shards of all the tables in parallel
+	private ShardedLongIntHashMap countInParallel(CountingTask task) {
+		if (nbThreads <= 1) {
+			ShardedLongIntHashMap counts = new ShardedLongIntHashMap(1);
+			task.count(counts);
+			return counts;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+		try {
+			List<Future<ShardedLongIntHashMap>> counting = new ArrayList<>();
+			for (int t = 0; t < nbThreads; t++) {
+				counting.add(pool.submit(() -> {
+					ShardedLongIntHashMap partial = new ShardedLongIntHashMap(nbThreads);
+					task.count(partial);
+					return partial;
+				}));
+			}
+			List<ShardedLongIntHashMap> partials = new ArrayList<>();
+			for (Future<ShardedLongIntHashMap> f : counting) {
+				partials.add(f.get());
+			}
+
+			ShardedLongIntHashMap counts = new ShardedLongIntHashMap(nbThreads, 16);
+			List<Future<?>> merging = new ArrayList<>();
+			for (int s = 0; s < nbThreads; s++) {
+				int shard = s;
+				merging.add(pool.submit(() -> {
+					LongIntHashMap merged = partials.get(0).getShard(shard);
+					for (int t = 1; t < partials.size(); t++) {
+						LongIntHashMap other = partials.get(t).getShard(shard);
+						if (other.size() > merged.size()) {
+							other.addAll(merged);
+							merged = other;
 						} else {
-							DuplicateDir duph = getDuplicate(candidates, d1, d2);
-							duph.addNbCommonFilesHierarchy(dup.getNbCommonFiles());
-							d2 = d2.getParent();
+							merged.addAll(other);
 						}
 					}
-					d1 = d1.getParent();
-				}
+					counts.setShard(shard, merged);
+				}));
+			}
+			for (Future<?> f : merging) {
+				f.get();
 			}
+			return counts;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
 		}
+	}
 
-		List<DuplicateDir> sorted = new ArrayList<>();
-		for (DuplicateDir dup : candidates.values()) {
-			if ((!aggregateHierarchy && dup.getNbCommonFiles() >= minNbCommonFiles) || (aggregateHierarchy && dup.getNbCommonFilesHierarchy() >= minNbCommonFiles)) {
-				dup.computeScores(aggregateHierarchy);
-				sorted.add(dup);
+	private ShardedLongIntHashMap countPairs(int cutoff) {
+		int[] offsets = fileToDirs.getOffsets();
+		int[] dirIds = fileToDirs.getValues();
+		int nbNames = fileToDirs.getNbLists();
+		AtomicInteger nextName = new AtomicInteger();
+		return countInParallel(partial -> {
+			int from;
+			while ((from = nextName.getAndAdd(PAIRS_BATCH)) < nbNames) {
+				countPairs(offsets, dirIds, from, Math.min(nbNames, from + PAIRS_BATCH), cutoff, partial);
+			}
+		});
+	}
+
+	private void countPairs(int[] offsets, int[] dirIds, int fromName, int toName, int cutoff, ShardedLongIntHashMap candidates) {
+		for (int n = fromName; n < toName; n++) {
+			int from = offsets[n];
+			int to = offsets[n + 1];
+			if (((to - from) > 1) && ((to - from) <= cutoff)) {
+				for (int i = from; i < (to - 1); i++) {
+					int idi = dirIds[i];
+					for (int j = i + 1; j < to; j++) {
+						candidates.addTo(LongIntHashMap.pairKey(idi, dirIds[j]), 1);
+					}
+				}
 			}
 		}
+	}
 
-		Collections.sort(sorted, new Comparator<DuplicateDir>() {
+	// exact counts over all the names, but only for the pairs of directories found similar by MinHash LSH
+	private ShardedLongIntHashMap countPairsApproximate() {
+		PostingLists byDir = dirToNames();
+		MinHashLsh lsh = new MinHashLsh(lshBands, lshRows, nbThreads);
+		lsh.setMaxBucketSize(lshMaxBucket);
+		LongIntHashMap found = lsh.candidates(byDir, minNbCommonFiles);
+		Log.log(" - " + DECF.format(found.size()) + " pairs sharing one of " + DECF.format(lsh.getNbBuckets()) + " buckets of " + lshBands + " x " + lshRows + " min hashes");
+		if (lsh.getNbTruncatedBuckets() > 0) {
+			Log.log(" - " + DECF.format(lsh.getNbTruncatedBuckets()) + " buckets only paired with their next " + DECF.format(lsh.getMaxBucketSize()) + " directories, "
+					+ DECF.format(lsh.getNbDroppedPairs()) + " band pairs dropped");
+		}
 
-			@Override
-			public int compare(DuplicateDir o1, DuplicateDir o2) {
-				int cmp = (int) Math.signum(o2.getScore() - o1.getScore());
-				return cmp;
+		long[] pairs = new long[found.size()];
+		int[] nb = new int[1];
+		found.forEach((k, v) -> pairs[nb[0]++] = k);
+		int[] offsets = byDir.getOffsets();
+		int[] names = byDir.getValues();
+		AtomicInteger nextPair = new AtomicInteger();
+		return countInParallel(partial -> {
+			int from;
+			while ((from = nextPair.getAndAdd(PAIRS_BATCH)) < pairs.length) {
+				for (int p = from; p < Math.min(pairs.length, from + PAIRS_BATCH); p++) {
+					int nbCommon = countCommonNames(offsets, names, LongIntHashMap.pairKeyFirst(pairs[p]), LongIntHashMap.pairKeySecond(pairs[p]));
+					if (nbCommon > 0) {
+						partial.addTo(pairs[p], nbCommon);
+					}
+				}
 			}
 		});
+	}
 
-		return sorted;
+	// both lists are sorted
+	private int countCommonNames(int[] offsets, int[] names, int d1, int d2) {
+		int i = offsets[d1];
+		int j = offsets[d2];
+		int last = -1;
+		int nb = 0;
+		while ((i < offsets[d1 + 1]) && (j < offsets[d2 + 1])) {
+			if (names[i] < names[j]) {
+				i++;
+			} else if (names[j] < names[i]) {
+				j++;
+			} else {
+				if (names[i] != last) {
+					nb++;
+				}
+				last = names[i];
+				i++;
+				j++;
+			}
+		}
+		return nb;
 	}
 
-	private Dir getDir(Path p) {
-		Dir dir = allDirs.get(p.toString());
-		if (dir == null) {
-			dir = new Dir(idGenerator++, p);
-			dir.setSubDirs(new ArrayList<>());
-			allDirs.put(p.toString(), dir);
+	private PostingLists dirToNames() {
+		if (dirToNames == null) {
+			dirToNames = fileToDirs.transpose(dirs.size());
 		}
-		return dir;
+		return dirToNames;
+	}
+
+	public List<DuplicateDir> findDuplicates(boolean aggregateHierarchy) {
+		return findDuplicates(aggregateHierarchy, Integer.MAX_VALUE);
+	}
+
+	public List<DuplicateDir> findDuplicates(boolean aggregateHierarchy, int top) {
+		return rankDuplicates(aggregateHierarchy, top).getTop();
+	}
+
+	// only the pairs of one directory, or of the directories of its subtree, from the posting lists of their own names : the same pairs
+	// as findDuplicates with the same settings, without counting all the others
+	public List<DuplicateDir> findDuplicatesOf(Dir dir, boolean subtree, boolean aggregateHierarchy, int top) {
+		if (approximate) {
+			throw new IllegalStateException("the duplicates of a single directory are not available in approximate mode");
+		}
+		if ((subtree || aggregateHierarchy) && (childOffsets == null)) {
+			throw new IllegalStateException("the subtree of a directory is only known once hierarchyStats has run");
+		}
+		freezeIndex();
+		try (PhaseMetrics.Phase phase = metrics.start("query")) {
+			countedNbDirForFile = pairBudget > 0 ? planPairs() : maxNbDirForFile;
+			int cutoff = countedNbDirForFile;
+
+			// over hierarchy, the pairs of a directory come from the pairs of all the directories below it
+			int[] queried = { dir.getId() };
+			int nbQueried = 1;
+			BitSet inQuery = new BitSet();
+			inQuery.set(dir.getId());
+			for (int i = 0; (subtree || aggregateHierarchy) && (i < nbQueried); i++) {
+				int id = queried[i];
+				if (hasStats(id)) {
+					for (int c = childOffsets[id]; c < childOffsets[id + 1]; c++) {
+						if (nbQueried == queried.length) {
+							queried = Arrays.copyOf(queried, 2 * nbQueried);
+						}
+						queried[nbQueried++] = childIds[c];
+						inQuery.set(childIds[c]);
+					}
+				}
+			}
+
+			PostingLists byDir = dirToNames();
+			int[] nameOffsets = byDir.getOffsets();
+			int[] names = byDir.getValues();
+			int[] dirOffsets = fileToDirs.getOffsets();
+			int[] dirIds = fileToDirs.getValues();
+			ShardedLongIntHashMap candidates = new ShardedLongIntHashMap(1);
+			for (int i = 0; i < nbQueried; i++) {
+				int q = queried[i];
+				if (q >= byDir.getNbLists()) {
+					continue;
+				}
+				for (int k = nameOffsets[q]; k < nameOffsets[q + 1]; k++) {
+					int n = names[k];
+					int from = dirOffsets[n];
+					int to = dirOffsets[n + 1];
+					if ((to - from) > cutoff) {
+						continue;
+					}
+					for (int j = from; j < to; j++) {
+						int other = dirIds[j];
+						// a pair inside the queried directories is counted from its lowest one
+						if ((other != q) && !((other < q) && inQuery.get(other))) {
+							candidates.addTo(LongIntHashMap.pairKey(q, other), 1);
+						}
+					}
+				}
+			}
+
+			ShardedLongIntHashMap scored = candidates;
+			if (aggregateHierarchy) {
+				ShardedLongIntHashMap all = new ShardedLongIntHashMap(1);
+				candidates.forEach((k, nb) -> aggregateHierarchy(k, nb, all));
+				scored = all;
+			}
+			ShardedLongIntHashMap reported = new ShardedLongIntHashMap(1);
+			scored.forEach((k, nb) -> {
+				int d1 = LongIntHashMap.pairKeyFirst(k);
+				int d2 = LongIntHashMap.pairKeySecond(k);
+				if (subtree ? inQuery.get(d1) || inQuery.get(d2) : (d1 == dir.getId()) || (d2 == dir.getId())) {
+					reported.addTo(k, nb);
+				}
+			});
+
+			Ranking ranking = new Ranking(aggregateHierarchy, candidates, reported);
+			ranking.rank(top);
+			phase.setItems(nbQueried);
+			phase.updatePeakCandidates(scored.size());
+			Log.log(DECF.format(ranking.getNbDuplicates()) + " duplicates of " + (subtree ? DECF.format(nbQueried) + " directories in " : "") + dir.getPath() + " among " + DECF.format(scored.size()) + " candidate pairs");
+			return ranking.getTop();
+		}
+	}
+
+	// the highest cutoff whose pairs fit in the budget, from the histogram of the posting list lengths, maxNbDirForFile is kept as set
+	private int planPairs() {
+		PairBudgetPlanner planner = new PairBudgetPlanner(fileToDirs);
+		int cutoff = planner.cutoffFor(pairBudget);
+		Log.log(" - budget of " + DECF.format(pairBudget) + " pairs, " + DECF.format(planner.getNbPairs(planner.getMaxLength())) + " without limit : names in at most " + DECF.format(cutoff) + " directories counted for "
+				+ DECF.format(planner.getNbPairs(cutoff)) + " pairs");
+		for (String line : planner.describe(cutoff)) {
+			Log.log("    " + line);
+		}
+		return cutoff;
+	}
+
+	public Ranking rankDuplicates(boolean aggregateHierarchy, int top) {
+		Log.log("Finding duplicates over " + DECF.format(nameIds.size()) + " file names in " + DECF.format(dirs.size()) + " directories");
+		freezeIndex();
+		ShardedLongIntHashMap candidates;
+		try (PhaseMetrics.Phase phase = metrics.start("count pairs")) {
+			if (approximate) {
+				countedNbDirForFile = maxNbDirForFile;
+				candidates = countPairsApproximate();
+				phase.setItems(dirs.size());
+				phase.updatePeakCandidates(candidates.size());
+				Log.log(" - " + DECF.format(candidates.size()) + " candidate pairs");
+			} else {
+				countedNbDirForFile = pairBudget > 0 ? planPairs() : maxNbDirForFile;
+				candidates = countPairs(countedNbDirForFile);
+				int nbSkipped = getNbSkippedPostingLists();
+				phase.setItems(fileToDirs.getNbLists());
+				phase.updatePeakCandidates(candidates.size());
+				phase.addSkippedPostingLists(nbSkipped);
+				Log.log(" - " + DECF.format(candidates.size()) + " candidate pairs, " + DECF.format(nbSkipped) + " file names found in more than " + DECF.format(countedNbDirForFile) + " directories skipped");
+			}
+		}
+
+		ShardedLongIntHashMap scored = candidates;
+		if (aggregateHierarchy) {
+			try (PhaseMetrics.Phase phase = metrics.start("hierarchy")) {
+				scored = aggregateHierarchy(candidates);
+				phase.setItems(candidates.size());
+				phase.updatePeakCandidates(scored.size());
+			}
+			Log.log(" - " + DECF.format(scored.size()) + " candidate pairs over hierarchy");
+		}
+
+		try (PhaseMetrics.Phase phase = metrics.start("rank")) {
+			Ranking ranking = new Ranking(aggregateHierarchy, candidates, scored);
+			ranking.rank(top);
+			phase.setItems(scored.size());
+			return ranking;
+		}
+	}
+
+	public void freezeIndex() {
+		fileToDirs.freeze();
+	}
+
+	public Dir getDir(String path) {
+		int id = dirs.find(path);
+		return id < 0 ? null : new Dir(id);
+	}
+
+	public Path getHashCache() {
+		return hashCache;
+	}
+
+	public long getListingMemory() {
+		return listingMemory;
+	}
+
+	public int getLshBands() {
+		return lshBands;
+	}
+
+	public int getLshMaxBucket() {
+		return lshMaxBucket;
+	}
+
+	public int getLshRows() {
+		return lshRows;
+	}
+
+	public long getPairBudget() {
+		return pairBudget;
+	}
+
+	// maxNbDirForFile, or the cutoff chosen from the pair budget by the last findDuplicates
+	public int getCountedNbDirForFile() {
+		return countedNbDirForFile < 0 ? maxNbDirForFile : countedNbDirForFile;
+	}
+
+	public int getMaxOpenDirs() {
+		return maxOpenDirs;
 	}
 
 	public int getMaxNbDirForFile() {
 		return maxNbDirForFile;
 	}
 
+	public PhaseMetrics getMetrics() {
+		return metrics;
+	}
+
 	public int getMinNbCommonFiles() {
 		return minNbCommonFiles;
 	}
 
+	// names left out of the pair counting because they are in too many directories
+	public int getNbSkippedPostingLists() {
+		int cutoff = getCountedNbDirForFile();
+		int nb = 0;
+		for (int n = 0; n < fileToDirs.getNbLists(); n++) {
+			if (fileToDirs.size(n) > cutoff) {
+				nb++;
+			}
+		}
+		return nb;
+	}
+
+	public int getNbThreads() {
+		return nbThreads;
+	}
+
 	private void help(boolean isError, String message) {
 		if (message != null) {
 			Log.log(isError, message);
@@ -326,38 +1005,103 @@ public class DupedirFinder {
 		}
 	}
 
-	private void hierarchyAccumulate(Dir d) {
-		for (Dir s : d.subDirs) {
-			hierarchyAccumulate(s);
+	private int lowestCommonAncestor(int d1, int d2) {
+		while (depths[d1] > depths[d2]) {
+			d1 = parentIds[d1];
+		}
+		while (depths[d2] > depths[d1]) {
+			d2 = parentIds[d2];
 		}
-		if (d.getParent() != null) {
-			d.getParent().addNbFilesHierarchy(d.getNbFilesHierarchy());
+		while (d1 != d2) {
+			d1 = parentIds[d1];
+			d2 = parentIds[d2];
 		}
+		return d1;
 	}
 
-	public void hierarchyStats() {
-		List<Dir> rootDirs = new ArrayList<>();
-
-		for (Dir dir : allDirs.values()) {
-			dir.setNbFiles(nbFilePerDir.getCount(dir.getPath().toString()));
-			dir.setNbFilesHierarchy(dir.getNbFiles());
-			Path parent = dir.getPath().getParent();
-			if (parent != null) {
-				Dir parentDir = getDir(parent);
-				parentDir.getSubDirs().add(dir);
-				dir.setParent(parentDir);
-			} else {
-				rootDirs.add(dir);
+	private boolean hasStats(int id) {
+		return (nbFiles != null) && (id < nbFiles.length);
+	}
+
+	// bottom-up, one depth level at a time : a directory only reads its children, which are all one level deeper
+	private void hierarchyAccumulate(int n) {
+		int maxDepth = 0;
+		for (int id = 0; id < n; id++) {
+			maxDepth = Math.max(maxDepth, depths[id]);
+		}
+		int[] levelOffsets = new int[maxDepth + 2];
+		for (int id = 0; id < n; id++) {
+			levelOffsets[depths[id] + 1]++;
+		}
+		for (int d = 0; d <= maxDepth; d++) {
+			levelOffsets[d + 1] += levelOffsets[d];
+		}
+		int[] byDepth = new int[n];
+		int[] fill = new int[maxDepth + 1];
+		for (int id = 0; id < n; id++) {
+			int d = depths[id];
+			byDepth[levelOffsets[d] + fill[d]++] = id;
+		}
+
+		ExecutorService pool = nbThreads > 1 ? Executors.newFixedThreadPool(nbThreads) : null;
+		try {
+			for (int d = maxDepth - 1; d >= 0; d--) {
+				int from = levelOffsets[d];
+				int to = levelOffsets[d + 1];
+				if ((pool == null) || (to - from < 2 * HIERARCHY_BATCH)) {
+					hierarchyAccumulate(byDepth, from, to);
+					continue;
+				}
+				List<Future<?>> level = new ArrayList<>();
+				for (int start = from; start < to; start += HIERARCHY_BATCH) {
+					int batchFrom = start;
+					int batchTo = Math.min(to, start + HIERARCHY_BATCH);
+					level.add(pool.submit(() -> hierarchyAccumulate(byDepth, batchFrom, batchTo)));
+				}
+				for (Future<?> f : level) {
+					f.get();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			if (pool != null) {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	private void hierarchyAccumulate(int[] byDepth, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int id = byDepth[i];
+			long nb = nbFiles[id];
+			for (int c = childOffsets[id]; c < childOffsets[id + 1]; c++) {
+				nb += nbFilesHierarchy[childIds[c]];
 			}
+			nbFilesHierarchy[id] = nb;
 		}
+	}
 
-		for (Dir d : rootDirs) {
-			hierarchyAccumulate(d);
+	public void hierarchyStats() {
+		freezeIndex();
+		int n = dirs.size();
+		try (PhaseMetrics.Phase phase = metrics.start("index")) {
+			parentIds = dirs.getParents();
+			depths = dirs.getDepths();
+			nbFiles = new long[n];
+			nbFilesHierarchy = new long[n];
+
+			nbFilePerDir.forEach((id, nb) -> nbFiles[id] = nb);
+			System.arraycopy(nbFiles, 0, nbFilesHierarchy, 0, n);
+			buildChildren(n);
+			hierarchyAccumulate(n);
+			phase.setItems(n);
 		}
 
-		// for (Dir dir : allDirs.values()) {
-		// Log.log("" + dir);
-		// }
+		Log.log("Index of " + DECF.format(nameIds.size()) + " file names, " + DECF.format(n) + " directories and " + DECF.format(fileToDirs.getNbValues()) + " files");
 	}
 
 	private void initOptions() {
@@ -372,44 +1116,408 @@ public class DupedirFinder {
 		options.addOptionGroup(action);
 
 		options.addOption("d", "dir", true, "a directory to scan [multiple times is possible]");
+		options.addOption("T", "text", false, "store files listing as plain text instead of the compact binary format");
 		options.addOption("f", "find", false, "find duplicates");
 		options.addOption("y", "hierarchy", false, "aggregate over hierarchy");
+		options.addOption("w", "watch", false, "after the scan, keep watching the directories and report the duplicates as they change, a pair budget is applied once to the initial scan");
+		options.addOption("i", "incremental", true, "snapshot of the scanned directories, the next scans only list again the directories modified since");
+		options.addOption("c", "cache", true, "file where the content hashes are kept between runs, so unchanged files are not read again");
+		options.addOption("v", "verify", false, "verify that the common files of the duplicates found have the same content, the duplicates aggregated over hierarchy with common files in their subdirectories are left unverified");
+		options.addOption("z", "sizes", false, "match files on their names and sizes, stored in the binary files listing");
+		options.addOption("k", "top", true, "only keep the N best duplicates");
+		options.addOption("t", "threads", true, "number of concurrent threads used to scan directories, load listings and find duplicates [default 1]");
+		options.addOption("m", "memory", true, "memory budget in MB used to sort the files listing before spilling to temporary files [default 256]");
+		options.addOption("x", "max-open-dirs", true, "maximum number of directories opened at the same time while scanning [default is the number of threads]");
+		options.addOption("O", "output", true, "file where the duplicates found are written instead of the standard output, written again after each burst of changes in watch mode");
+		options.addOption("e", "format", true, "format of the duplicates output file, csv or jsonl [default from the file extension, csv otherwise]");
+		options.addOption("a", "approximate", false, "find candidate pairs with MinHash LSH over all the file names, however common, then count their common files exactly");
+		options.addOption("b", "lsh-bands", true, "number of LSH bands in approximate mode, more bands find less similar pairs [default 20]");
+		options.addOption("r", "lsh-rows", true, "number of min hashes per LSH band in approximate mode, more rows find fewer and more similar pairs [default 4]");
+		options.addOption("g", "lsh-max-bucket", true, "in approximate mode, each directory of a larger LSH bucket is only paired with the next ones, the pairs dropped are reported [default " + MinHashLsh.DEFAULT_MAX_BUCKET_SIZE + "]");
+		options.addOption("p", "pairs", true, "budget of candidate pairs in millions, the names counted are chosen from their frequencies to stay within it");
+		options.addOption("P", "pairs-memory", true, "budget in MB of the candidate pairs, the names counted are chosen from their frequencies to stay within it");
+		options.addOption("q", "query", true, "only find the duplicates of this directory, from an index already loaded or scanned, with the same hierarchy and pair budget options [not in approximate mode]");
+		options.addOption("u", "subtree", false, "with the query option, also find the duplicates of all the directories below it");
+		options.addOption("M", "metrics", true, "file where the time, items and memory of each phase are written as JSON at the end of the run");
 	}
 
 	public void initScan() {
-		idGenerator = 0;
-		allDirs = new TreeMap<>();
-		fileToDirs = new HashMap<>();
-		nbFilePerDir = new Counter<>();
+		nameIds = new HashMap<>();
+		fileToDirs = new PostingLists();
+		dirs = new DirectoryTrie();
+		nbFilePerDir = new IntCounter();
+		dirToNames = null;
+		live = null;
+		parentIds = null;
+		childOffsets = null;
+		childIds = null;
+		depths = null;
+		nbFiles = null;
+		nbFilesHierarchy = null;
 	}
 
-	public void scan(Path p, Consumer<Path> m) throws IOException {
-		BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
-		if (attrs.isSymbolicLink()) {
+	// from now on, the changes to the index also update the duplicates counts, hierarchyStats must have been called
+	public synchronized LiveDuplicates liveDuplicates(boolean aggregateHierarchy) {
+		live = new LiveDuplicates(aggregateHierarchy);
+		return live;
+	}
+
+	public void load(List<Path> listings) throws IOException {
+		for (Path listing : listings) {
+			Log.log("Loading files listing from " + listing);
+		}
+		ListingLoader loader = new ListingLoader(nbThreads);
+		loader.setMatchSizes(matchSizes);
+		try (PhaseMetrics.Phase phase = metrics.start("load")) {
+			loader.load(listings, this);
+			phase.setItems(loader.getNbFiles());
+		}
+		Log.log(" - loaded " + DECF.format(loader.getNbFiles()) + " files");
+	}
+
+	public void load(Path listing) throws IOException {
+		load(List.of(listing));
+	}
+
+	public synchronized boolean removeFileFromIndex(String dirPath, String name, long size) {
+		int dirId = dirs.find(dirPath);
+		Integer nameId = nameIds.get(matchSizes ? matchingKey(name, size) : name);
+		if ((dirId < 0) || (nameId == null) || !fileToDirs.remove(nameId, dirId)) {
+			return false;
+		}
+		nbFilePerDir.add(dirId, -1);
+		dirToNames = null;
+		if (live != null) {
+			live.indexChanged(nameId, dirId, -1);
+		}
+		return true;
+	}
+
+	private void report(List<DuplicateDir> duplicates, boolean verify, Path results, ResultSink.Format format) {
+		if (verify) {
+			verifyDuplicates(duplicates);
+		}
+		if (results != null) {
+			try (ResultSink sink = new ResultSink(results, format)) {
+				sink.write(duplicates);
+				Log.log(DECF.format(sink.getNbWritten()) + " duplicates written to " + results);
+			} catch (IOException e) {
+				Log.log(true, e);
+			}
+		} else {
+			for (DuplicateDir dup : duplicates) {
+				Log.log("" + dup);
+			}
+		}
+	}
+
+	private void run(CommandLine command) {
+		if (command.hasOption('t')) {
+			try {
+				setNbThreads(Integer.parseInt(command.getOptionValue('t')));
+			} catch (NumberFormatException e) {
+				help(true, "invalid number of threads : " + command.getOptionValue('t'));
+				return;
+			}
+		}
+
+		if (command.hasOption('x')) {
+			try {
+				setMaxOpenDirs(Integer.parseInt(command.getOptionValue('x')));
+			} catch (NumberFormatException e) {
+				help(true, "invalid number of directories : " + command.getOptionValue('x'));
+				return;
+			}
+		}
+
+		if (command.hasOption('m')) {
+			try {
+				setListingMemory(Long.parseLong(command.getOptionValue('m')) << 20);
+			} catch (NumberFormatException e) {
+				help(true, "invalid memory budget : " + command.getOptionValue('m'));
+				return;
+			}
+		}
+
+		setMatchSizes(command.hasOption('z'));
+		setApproximate(command.hasOption('a'));
+		try {
+			if (command.hasOption('b')) {
+				setLshBands(Integer.parseInt(command.getOptionValue('b')));
+			}
+			if (command.hasOption('r')) {
+				setLshRows(Integer.parseInt(command.getOptionValue('r')));
+			}
+			if (command.hasOption('g')) {
+				setLshMaxBucket(Integer.parseInt(command.getOptionValue('g')));
+			}
+		} catch (NumberFormatException e) {
+			help(true, "invalid number of LSH bands, rows or bucket size : " + e.getMessage());
 			return;
 		}
-		if (attrs.isDirectory()) {
+
+		try {
+			long budget = Long.MAX_VALUE;
+			if (command.hasOption('p')) {
+				budget = Math.min(budget, (long) (Double.parseDouble(command.getOptionValue('p')) * 1e6));
+			}
+			if (command.hasOption('P')) {
+				budget = Math.min(budget, (Long.parseLong(command.getOptionValue('P')) << 20) / PairBudgetPlanner.BYTES_PER_PAIR);
+			}
+			if (budget < Long.MAX_VALUE) {
+				setPairBudget(budget);
+			}
+		} catch (NumberFormatException e) {
+			help(true, "invalid pair budget : " + e.getMessage());
+			return;
+		}
+		if (command.hasOption('c')) {
+			setHashCache(Paths.get(command.getOptionValue('c')));
+		}
+
+		int top = Integer.MAX_VALUE;
+		if (command.hasOption('k')) {
 			try {
-				for (Iterator<Path> i = Files.list(p).iterator(); i.hasNext();) {
-					scan(i.next(), m);
+				top = Integer.parseInt(command.getOptionValue('k'));
+				if (top < 0) {
+					throw new NumberFormatException();
 				}
-			} catch (AccessDeniedException e) {
+			} catch (NumberFormatException e) {
+				help(true, "invalid number of duplicates : " + command.getOptionValue('k'));
+				return;
+			}
+		}
+
+		Path results = command.hasOption('O') ? Paths.get(command.getOptionValue('O')) : null;
+		ResultSink.Format format = results != null ? ResultSink.Format.of(results) : ResultSink.Format.CSV;
+		if (command.hasOption('e')) {
+			try {
+				format = ResultSink.Format.of(command.getOptionValue('e'));
+			} catch (IllegalArgumentException e) {
+				help(true, "invalid output format : " + command.getOptionValue('e'));
+				return;
+			}
+		}
+
+		if (command.hasOption('o')) {
+			File output = new File(command.getOptionValue('o'));
+			Log.log("Storing files listing in " + output);
+			try (ExternalSorter sorter = new ExternalSorter(listingMemory, output.getAbsoluteFile().getParentFile().toPath()); ListingWriter w = new ListingWriter(output.toPath(), !command.hasOption('T'), matchSizes)) {
+				for (String param : command.getOptionValues('d')) {
+					Path path = Paths.get(param).toAbsolutePath();
+					Log.log(" - listing files from " + path);
+					scan(path, (p, size) -> {
+						try {
+							// the separator sorts first, so the entries keep the order of their paths
+							sorter.add(w.isWithSizes() ? p.toString() + SIZE_SEPARATOR + size : p.toString());
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+				}
+
+				try (PhaseMetrics.Phase phase = metrics.start("sort")) {
+					sorter.sort(e -> {
+						int idx = w.isWithSizes() ? e.lastIndexOf(SIZE_SEPARATOR) : -1;
+						if (idx < 0) {
+							w.write(e);
+						} else {
+							w.write(e.substring(0, idx), Long.parseLong(e.substring(idx + 1)));
+						}
+					});
+					phase.setItems(w.getNbWritten());
+				}
+			} catch (UncheckedIOException e) {
+				Log.log(true, e.getCause());
+			} catch (IOException e) {
 				Log.log(true, e);
 			}
+
+			return;
 		}
-		if (attrs.isRegularFile()) {
-			m.accept(p);
+
+		if (command.hasOption('l')) {
+			initScan();
+			try {
+				List<Path> listings = new ArrayList<>();
+				for (String param : command.getOptionValues('l')) {
+					listings.add(Paths.get(param));
+				}
+				load(listings);
+				hierarchyStats();
+			} catch (IOException e) {
+				Log.log(true, e);
+			}
 		}
+
+		if (command.hasOption('s')) {
+			initScan();
+			try {
+				Path snapshotFile = command.hasOption('i') ? Paths.get(command.getOptionValue('i')) : null;
+				ScanSnapshot snapshot = null;
+				if (snapshotFile != null) {
+					snapshot = Files.exists(snapshotFile) ? ScanSnapshot.read(snapshotFile) : new ScanSnapshot();
+					Log.log("Using the " + DECF.format(snapshot.size()) + " directories recorded in " + snapshotFile);
+				} else if (command.hasOption('w')) {
+					// the watch mode needs to know what each directory held
+					snapshot = new ScanSnapshot();
+				}
+				List<Path> roots = new ArrayList<>();
+				for (String param : command.getOptionValues('d')) {
+					Path path = Paths.get(param).toAbsolutePath();
+					roots.add(path);
+					Log.log("Scanning files listing from " + path);
+					if (snapshot != null) {
+						scanIncremental(path, snapshot);
+					} else {
+						scan(path, (p, size) -> addFileToIndex(p, size));
+					}
+				}
+				if (snapshotFile != null) {
+					snapshot.write(snapshotFile);
+				}
+				hierarchyStats();
+
+				if (command.hasOption('w')) {
+					watch(roots, snapshot, command.hasOption('y'), top, results, format);
+					return;
+				}
+			} catch (IOException e) {
+				Log.log(true, e);
+			}
+		}
+
+		if (command.hasOption('q')) {
+			String param = command.getOptionValue('q');
+			Dir dir = getDir(param);
+			if (dir == null) {
+				dir = getDir(Paths.get(param).toAbsolutePath().toString());
+			}
+			if (dir == null) {
+				Log.log(true, "directory not found in the index : " + param);
+				return;
+			}
+			if (approximate) {
+				help(true, "the query option can not be used in approximate mode");
+				return;
+			}
+			report(findDuplicatesOf(dir, command.hasOption('u'), command.hasOption('y'), top), command.hasOption('v'), results, format);
+			return;
+		}
+
+		if (command.hasOption('f')) {
+			report(findDuplicates(command.hasOption('y'), top), command.hasOption('v'), results, format);
+			return;
+		}
+	}
+
+	public void scan(Path p, Consumer<Path> m) throws IOException {
+		scan(p, (f, size) -> m.accept(f));
+	}
+
+	public void scan(Path p, DirectoryScanner.FileHandler h) throws IOException {
+		DirectoryScanner scanner = new DirectoryScanner(nbThreads, maxOpenDirs > 0 ? maxOpenDirs : nbThreads);
+		try (PhaseMetrics.Phase phase = metrics.start("scan")) {
+			scanner.scan(p, (f, size) -> {
+				h.file(f, size);
+				phase.addItems(1);
+			});
+		}
+		if (scanner.getNbErrors() > 0) {
+			Log.log(true, DECF.format(scanner.getNbErrors()) + " errors while scanning " + p);
+		}
+	}
+
+	// the index gets the files recorded by the previous scan, then only the changes found since are applied to it
+	public void scanIncremental(Path p, ScanSnapshot snapshot) throws IOException {
+		snapshot.forEachFile(p.toString(), (dir, name, size) -> addFileToIndex(dir, name, size));
+
+		AtomicLong nbAdded = new AtomicLong();
+		AtomicLong nbRemoved = new AtomicLong();
+		DirectoryScanner scanner = new DirectoryScanner(nbThreads, maxOpenDirs > 0 ? maxOpenDirs : nbThreads);
+		try (PhaseMetrics.Phase phase = metrics.start("incremental scan")) {
+			scanner.refresh(p, snapshot, new DirectoryScanner.ChangeHandler() {
+				@Override
+				public void added(String dir, String name, long size) {
+					addFileToIndex(dir, name, size);
+					nbAdded.incrementAndGet();
+				}
+
+				@Override
+				public void removed(String dir, String name, long size) {
+					if (removeFileFromIndex(dir, name, size)) {
+						nbRemoved.incrementAndGet();
+					}
+				}
+			});
+			phase.setItems(scanner.getNbDirs());
+		}
+		Log.log(" - " + DECF.format(scanner.getNbRelistedDirs()) + " of " + DECF.format(scanner.getNbDirs()) + " directories listed again, " + DECF.format(nbAdded.get()) + " files added and " + DECF.format(nbRemoved.get()) + " removed");
+		if (scanner.getNbErrors() > 0) {
+			Log.log(true, DECF.format(scanner.getNbErrors()) + " errors while scanning " + p);
+		}
+	}
+
+	public boolean isApproximate() {
+		return approximate;
+	}
+
+	public boolean isMatchSizes() {
+		return matchSizes;
+	}
+
+	// candidate pairs from MinHash LSH on the sets of names, instead of every pair sharing a name found in at most maxNbDirForFile directories
+	public void setApproximate(boolean approximate) {
+		this.approximate = approximate;
+	}
+
+	public void setHashCache(Path hashCache) {
+		this.hashCache = hashCache;
+	}
+
+	public void setListingMemory(long listingMemory) {
+		this.listingMemory = listingMemory;
+	}
+
+	public void setLshBands(int lshBands) {
+		this.lshBands = lshBands;
+	}
+
+	// each directory of a larger LSH bucket is only paired with the next ones, to keep the pairs linear in its size
+	public void setLshMaxBucket(int lshMaxBucket) {
+		this.lshMaxBucket = lshMaxBucket;
+	}
+
+	public void setLshRows(int lshRows) {
+		this.lshRows = lshRows;
+	}
+
+	// maximum number of pair increments when counting, findDuplicates then counts the names in as many directories as fit in it, -1 for maxNbDirForFile
+	public void setPairBudget(long pairBudget) {
+		this.pairBudget = pairBudget;
 	}
 
 	public void setMaxNbDirForFile(int maxNbDirForFile) {
 		this.maxNbDirForFile = maxNbDirForFile;
+		countedNbDirForFile = -1;
+	}
+
+	public void setMatchSizes(boolean matchSizes) {
+		this.matchSizes = matchSizes;
+	}
+
+	public void setMaxOpenDirs(int maxOpenDirs) {
+		this.maxOpenDirs = maxOpenDirs;
 	}
 
 	public void setMinNbCommonFiles(int minNbCommonFiles) {
 		this.minNbCommonFiles = minNbCommonFiles;
 	}
 
+	public void setNbThreads(int nbThreads) {
+		this.nbThreads = nbThreads;
+	}
+
 	public void start(String[] args) {
 		initOptions();
 
@@ -427,90 +1535,161 @@ public class DupedirFinder {
 			return;
 		}
 
-		if (command.hasOption('o')) {
-			allFiles = new TreeSet<>();
-			File output = new File(command.getOptionValue('o'));
-			Log.log("Storing files listing in " + output);
-			BufferedWriter w = null;
+		run(command);
+
+		if (command.hasOption('M')) {
+			Path summary = Paths.get(command.getOptionValue('M'));
 			try {
-				w = new BufferedWriter(new FileWriter(output));
+				metrics.writeSummary(summary, nbThreads, getCountedNbDirForFile());
+				Log.log("Metrics of the run written to " + summary);
+			} catch (IOException e) {
+				Log.log(true, e);
+			}
+		}
+	}
 
-				for (String param : command.getOptionValues('d')) {
-					Path path = Paths.get(param).toAbsolutePath();
-					Log.log(" - listing files from " + path);
-					scan(path, p -> allFiles.add(p.toString()));
+	// applies the changes below the roots to the index as they happen, and reports the best duplicates after each burst of changes, the
+	// results file is written again each time
+	public void watch(List<Path> roots, ScanSnapshot snapshot, boolean aggregateHierarchy, int top, Path results, ResultSink.Format format) throws IOException {
+		LiveDuplicates duplicates = liveDuplicates(aggregateHierarchy);
+		DirectoryScanner scanner = new DirectoryScanner(nbThreads, maxOpenDirs > 0 ? maxOpenDirs : nbThreads);
+		try (DirectoryWatcher watcher = new DirectoryWatcher(WATCH_QUIET_DELAY, 10 * WATCH_QUIET_DELAY)) {
+			DirectoryScanner.ChangeHandler changes = new DirectoryScanner.ChangeHandler() {
+				@Override
+				public void added(String dir, String name, long size) {
+					addFileToIndex(dir, name, size);
 				}
 
-				for (String p : allFiles) {
-					w.write(p + "\n");
-				}
-			} catch (IOException e) {
-				Log.log(true, e);
-			} finally {
-				if (w != null) {
+				@Override
+				public void dirAdded(String dir) {
 					try {
-						w.close();
+						watcher.register(Paths.get(dir));
 					} catch (IOException e) {
-						// ignore
+						Log.log(true, e);
 					}
 				}
-			}
 
-			return;
+				@Override
+				public void removed(String dir, String name, long size) {
+					removeFileFromIndex(dir, name, size);
+				}
+			};
+			for (Path root : roots) {
+				snapshot.forEachDir(root.toString(), changes::dirAdded);
+			}
+			Log.log("Watching " + DECF.format(watcher.getNbWatched()) + " directories");
+
+			while (true) {
+				report(duplicates.rank(top).getTop(), false, results, format);
+				Set<Path> changed = watcher.take();
+				if (watcher.hasOverflowed()) {
+					Log.log(true, "too many changes at once, checking all the directories again");
+					for (Path root : roots) {
+						scanner.refresh(root, snapshot, changes);
+					}
+				} else {
+					scanner.refreshDirs(changed, snapshot, changes);
+				}
+				Log.log(DECF.format(changed.size()) + " directories changed, " + DECF.format(fileToDirs.getNbValues()) + " files indexed");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
+	}
 
-		if (command.hasOption('l')) {
-			initScan();
-			BufferedReader r = null;
+	// checks the common files of each duplicate by size, then head and tail hash, then full hash
+	public void verifyDuplicates(List<DuplicateDir> duplicates) {
+		int[] offsets = dirToNames().getOffsets();
+		int[] nameIdsByDir = dirToNames().getValues();
+		int cutoff = getCountedNbDirForFile();
+		String[] names = new String[nameIds.size()];
+		for (Entry<String, Integer> e : nameIds.entrySet()) {
+			names[e.getValue()] = e.getKey();
+		}
 
-			try {
-				for (String param : command.getOptionValues('l')) {
-					File input = new File(param);
-					Log.log("Loading files listing from " + input);
-					r = new BufferedReader(new FileReader(input));
-					String line = null;
-					while ((line = r.readLine()) != null) {
-						line = line.strip();
-						if (!line.isBlank() && !line.startsWith("#")) {
-							Path path = Paths.get(line).toAbsolutePath();
-							addFileToIndex(path);
+		List<Path> files1 = new ArrayList<>();
+		List<Path> files2 = new ArrayList<>();
+		List<DuplicateDir> owners = new ArrayList<>();
+		int nbHierarchy = 0;
+		for (DuplicateDir dup : duplicates) {
+			// only the files directly in both directories are compared, which says nothing of the files of their subtrees
+			if (dup.getNbCommonFilesHierarchy() > dup.getNbCommonFiles()) {
+				dup.nbVerifiedFiles = -1;
+				dup.nbVerifiedBytes = 0;
+				nbHierarchy++;
+				continue;
+			}
+			dup.nbVerifiedFiles = 0;
+			dup.nbVerifiedBytes = 0;
+			int d1 = dup.getDir1().getId();
+			int d2 = dup.getDir2().getId();
+			Path p1 = dup.getDir1().getPath();
+			Path p2 = dup.getDir2().getPath();
+			// both lists are sorted, same files as the ones counted by findDuplicates
+			int i = offsets[d1];
+			int j = offsets[d2];
+			int last = -1;
+			while ((i < offsets[d1 + 1]) && (j < offsets[d2 + 1])) {
+				int n1 = nameIdsByDir[i];
+				int n2 = nameIdsByDir[j];
+				if (n1 < n2) {
+					i++;
+				} else if (n2 < n1) {
+					j++;
+				} else {
+					if ((n1 != last) && (approximate || (fileToDirs.size(n1) <= cutoff))) {
+						String name = names[n1];
+						int idx = name.indexOf(SIZE_SEPARATOR);
+						if (idx >= 0) {
+							name = name.substring(0, idx);
 						}
+						files1.add(p1.resolve(name));
+						files2.add(p2.resolve(name));
+						owners.add(dup);
 					}
-					r.close();
-				}
-				hierarchyStats();
-			} catch (IOException e) {
-				Log.log(true, e);
-			} finally {
-				if (r != null) {
-					try {
-						r.close();
-					} catch (IOException e) {
-						// ignore
-					}
+					last = n1;
+					i++;
+					j++;
 				}
 			}
 		}
 
-		if (command.hasOption('s')) {
-			initScan();
+		Log.log("Verifying the content of " + DECF.format(files1.size()) + " pairs of files in " + DECF.format(duplicates.size() - nbHierarchy) + " duplicates");
+		if (nbHierarchy > 0) {
+			Log.log(" - " + DECF.format(nbHierarchy) + " duplicates with common files in their subdirectories left unverified");
+		}
+		ContentVerifier verifier = new ContentVerifier(nbThreads);
+		HashCache cache = null;
+		if (hashCache != null) {
 			try {
-				for (String param : command.getOptionValues('d')) {
-					Path path = Paths.get(param).toAbsolutePath();
-					Log.log("Scanning files listing from " + path);
-					scan(path, p -> addFileToIndex(p));
-				}
-				hierarchyStats();
+				cache = new HashCache(hashCache);
+				verifier.setCache(cache);
+				Log.log(" - using the " + DECF.format(cache.size()) + " hashes cached in " + hashCache);
 			} catch (IOException e) {
 				Log.log(true, e);
 			}
 		}
-
-		if (command.hasOption('f')) {
-			for (DuplicateDir dup : findDuplicates(command.hasOption('y'))) {
-				Log.log("" + dup);
+		long[] sizes;
+		try (PhaseMetrics.Phase phase = metrics.start("verify")) {
+			sizes = verifier.verify(files1, files2);
+			phase.setItems(files1.size());
+		}
+		for (int f = 0; f < sizes.length; f++) {
+			if (sizes[f] >= 0) {
+				owners.get(f).addVerifiedFile(sizes[f]);
 			}
-			return;
+		}
+		if (cache != null) {
+			Log.log(" - " + DECF.format(cache.getNbHits()) + " of " + DECF.format(cache.getNbLookups()) + " files found unchanged in the hash cache");
+			try {
+				cache.close();
+			} catch (IOException e) {
+				Log.log(true, e);
+			}
+		}
+		Log.log(" - " + DECF.format(verifier.getNbFilesSized()) + " files sized, " + DECF.format(verifier.getNbFilesPartiallyHashed()) + " partially hashed, " + DECF.format(verifier.getNbFilesFullyHashed()) + " fully hashed, " + DECF.format(verifier.getNbBytesRead()) + " bytes read");
+		if (verifier.getNbErrors() > 0) {
+			Log.log(true, DECF.format(verifier.getNbErrors()) + " files could not be read while verifying duplicates");
 		}
 	}
 
@@ -0,0 +1,214 @@
+package name.herve.dupedir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class ExternalSorter implements Closeable {
+	public interface Sink {
+		void accept(String s) throws IOException;
+	}
+
+	private static class Run implements Closeable, Comparable<Run> {
+		private DataInputStream in;
+		private String current;
+
+		public Run(Path file) throws IOException {
+			super();
+			in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+			next();
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		@Override
+		public int compareTo(Run o) {
+			return current.compareTo(o.current);
+		}
+
+		public boolean next() throws IOException {
+			int len;
+			try {
+				len = in.readInt();
+			} catch (EOFException e) {
+				current = null;
+				return false;
+			}
+			byte[] b = new byte[len];
+			in.readFully(b);
+			current = new String(b, StandardCharsets.UTF_8);
+			return true;
+		}
+	}
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_MERGE_RUNS = 64;
+
+	// rough heap footprint of a String in the buffer : headers, value array and the list slot
+	private static long estimateSize(String s) {
+		return 64 + 2L * s.length();
+	}
+
+	private long memoryBudget;
+	private Path tmpDir;
+	private List<String> buffer;
+	private long bufferSize;
+	private List<Path> runs;
+	private long nbAdded;
+
+	public ExternalSorter(long memoryBudget) {
+		this(memoryBudget, null);
+	}
+
+	public ExternalSorter(long memoryBudget, Path tmpDir) {
+		super();
+		this.memoryBudget = memoryBudget;
+		this.tmpDir = tmpDir;
+		buffer = new ArrayList<>();
+		bufferSize = 0;
+		runs = new ArrayList<>();
+		nbAdded = 0;
+	}
+
+	public synchronized void add(String s) throws IOException {
+		buffer.add(s);
+		bufferSize += estimateSize(s);
+		nbAdded++;
+		if (bufferSize >= memoryBudget) {
+			spill();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		buffer.clear();
+		bufferSize = 0;
+		for (Path r : runs) {
+			Files.deleteIfExists(r);
+		}
+		runs.clear();
+	}
+
+	private Path createRunFile() throws IOException {
+		return tmpDir == null ? Files.createTempFile("dupedir-", ".run") : Files.createTempFile(tmpDir, "dupedir-", ".run");
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public long getNbAdded() {
+		return nbAdded;
+	}
+
+	public int getNbRuns() {
+		return runs.size();
+	}
+
+	private void merge(List<Path> toMerge, Sink out) throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<>();
+		try {
+			for (Path p : toMerge) {
+				Run r = new Run(p);
+				if (r.current != null) {
+					queue.add(r);
+				} else {
+					r.close();
+				}
+			}
+			String last = null;
+			while (!queue.isEmpty()) {
+				Run r = queue.poll();
+				if (!r.current.equals(last)) {
+					last = r.current;
+					out.accept(last);
+				}
+				if (r.next()) {
+					queue.add(r);
+				} else {
+					r.close();
+				}
+			}
+		} finally {
+			for (Run r : queue) {
+				r.close();
+			}
+		}
+	}
+
+	private void reduceRuns() throws IOException {
+		while (runs.size() > MAX_MERGE_RUNS) {
+			List<Path> group = new ArrayList<>(runs.subList(0, MAX_MERGE_RUNS));
+			runs.subList(0, MAX_MERGE_RUNS).clear();
+			Path merged = createRunFile();
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged), BUFFER_SIZE))) {
+				merge(group, s -> write(out, s));
+			}
+			for (Path r : group) {
+				Files.delete(r);
+			}
+			runs.add(merged);
+		}
+	}
+
+	public synchronized void sort(Sink out) throws IOException {
+		if (runs.isEmpty()) {
+			Collections.sort(buffer);
+			String last = null;
+			for (String s : buffer) {
+				if (!s.equals(last)) {
+					last = s;
+					out.accept(s);
+				}
+			}
+			buffer.clear();
+			bufferSize = 0;
+			return;
+		}
+
+		spill();
+		reduceRuns();
+		Log.log(" - merging " + runs.size() + " sorted runs");
+		merge(runs, out);
+	}
+
+	private void spill() throws IOException {
+		if (buffer.isEmpty()) {
+			return;
+		}
+		Collections.sort(buffer);
+		Path run = createRunFile();
+		runs.add(run);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+			String last = null;
+			for (String s : buffer) {
+				if (!s.equals(last)) {
+					last = s;
+					write(out, s);
+				}
+			}
+		}
+		buffer.clear();
+		bufferSize = 0;
+	}
+
+	private void write(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+}
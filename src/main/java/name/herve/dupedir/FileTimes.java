@@ -0,0 +1,20 @@
+package name.herve.dupedir;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// modification times in nanoseconds since the epoch, like HashCache.mtime
+public class FileTimes {
+	// covers the coarsest file system timestamps
+	private static final long RACY_MARGIN = TimeUnit.SECONDS.toNanos(2);
+
+	// modified in the same clock tick as the start of a listing or a hashing, so it may change again without changing its mtime
+	public static boolean isRacy(long mtime, long start) {
+		return mtime >= (start - RACY_MARGIN);
+	}
+
+	public static long now() {
+		Instant now = Instant.now();
+		return (now.getEpochSecond() * 1_000_000_000L) + now.getNano();
+	}
+}
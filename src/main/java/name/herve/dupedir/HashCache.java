@@ -0,0 +1,246 @@
+package name.herve.dupedir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class HashCache implements Closeable {
+	public static class Entry {
+		private long size;
+		private long mtime;
+		private byte[] partialHash;
+		private byte[] fullHash;
+
+		public Entry(long size, long mtime, byte[] partialHash, byte[] fullHash) {
+			super();
+			this.size = size;
+			this.mtime = mtime;
+			this.partialHash = partialHash;
+			this.fullHash = fullHash;
+		}
+
+		public byte[] getFullHash() {
+			return fullHash;
+		}
+
+		public long getMtime() {
+			return mtime;
+		}
+
+		public byte[] getPartialHash() {
+			return partialHash;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+	// cache layout :
+	// MAGIC, VERSION
+	// records : varint path length, path, varint size, varint mtime, varint partial hash length, partial hash, varint full hash length, full hash
+	// records are only appended, the last one for a path wins and the file is rewritten once most of its records are obsolete
+	public static final byte[] MAGIC = { 'D', 'D', 'H', 'C' };
+	public static final int VERSION = 1;
+	private static final byte[] NO_HASH = new byte[0];
+
+	public static long mtime(BasicFileAttributes attrs) {
+		return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+	}
+
+	private static byte[] readBytes(InputStream in) throws IOException {
+		int len = ListingFormat.readVarInt(in);
+		byte[] b = in.readNBytes(len);
+		if (b.length < len) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	private static void writeBytes(OutputStream out, byte[] b) throws IOException {
+		ListingFormat.writeVarLong(out, b.length);
+		out.write(b);
+	}
+
+	private Path file;
+	private Map<String, Entry> entries;
+	private OutputStream out;
+	private long nbRecords;
+	private long nbLookups;
+	private long nbHits;
+	private long opened;
+
+	public HashCache(Path file) throws IOException {
+		super();
+		this.file = file;
+		entries = new HashMap<>();
+		nbRecords = 0;
+		nbLookups = 0;
+		nbHits = 0;
+		opened = FileTimes.now();
+		if (Files.exists(file) && load()) {
+			out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND), 1 << 16);
+		} else {
+			rewrite();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (out == null) {
+			return;
+		}
+		if (nbRecords > (2L * entries.size())) {
+			compact();
+		}
+		out.close();
+		out = null;
+	}
+
+	// drops the entries of the files deleted or modified since they were hashed, and rewrites the file with one record per path
+	public synchronized int compact() throws IOException {
+		int nbRemoved = 0;
+		for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Entry> e = it.next();
+			BasicFileAttributes attrs = null;
+			try {
+				attrs = Files.readAttributes(Path.of(e.getKey()), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (NoSuchFileException ex) {
+				attrs = null;
+			} catch (IOException ex) {
+				// not readable right now, keep it
+				continue;
+			}
+			if ((attrs == null) || (attrs.size() != e.getValue().size) || (mtime(attrs) != e.getValue().mtime)) {
+				it.remove();
+				nbRemoved++;
+			}
+		}
+		if (out != null) {
+			out.close();
+		}
+		rewrite();
+		return nbRemoved;
+	}
+
+	// only returns the entry if the file did not change since it was hashed
+	public synchronized Entry get(String path, long size, long mtime) {
+		nbLookups++;
+		Entry e = entries.get(path);
+		if (e == null) {
+			return null;
+		}
+		if ((e.size != size) || (e.mtime != mtime)) {
+			entries.remove(path);
+			return null;
+		}
+		nbHits++;
+		return e;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public synchronized long getNbHits() {
+		return nbHits;
+	}
+
+	public synchronized long getNbLookups() {
+		return nbLookups;
+	}
+
+	public synchronized long getNbRecords() {
+		return nbRecords;
+	}
+
+	// returns false when the file is truncated or damaged and has to be rewritten
+	private boolean load() throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			byte[] magic = in.readNBytes(MAGIC.length);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if ((magic.length < MAGIC.length) || (magic[i] != MAGIC[i])) {
+					throw new IOException("not a hash cache : " + file);
+				}
+			}
+			int version = in.read();
+			if (version != VERSION) {
+				Log.log(true, "unsupported hash cache version " + version + " in " + file + ", starting from an empty cache");
+				return false;
+			}
+			while (true) {
+				in.mark(1);
+				if (in.read() < 0) {
+					return true;
+				}
+				in.reset();
+				try {
+					String path = new String(readBytes(in), StandardCharsets.UTF_8);
+					long size = ListingFormat.readVarLong(in);
+					long mtime = ListingFormat.readVarLong(in);
+					byte[] partialHash = readBytes(in);
+					byte[] fullHash = readBytes(in);
+					entries.put(path, new Entry(size, mtime, partialHash.length > 0 ? partialHash : null, fullHash.length > 0 ? fullHash : null));
+					nbRecords++;
+				} catch (IOException e) {
+					Log.log(true, "truncated hash cache " + file + ", keeping the " + entries.size() + " entries read");
+					return false;
+				}
+			}
+		}
+	}
+
+	// the hashes of a file modified in the same tick as the hashing are not kept, the next run hashes it again
+	public synchronized void put(String path, long size, long mtime, byte[] partialHash, byte[] fullHash) throws IOException {
+		if (FileTimes.isRacy(mtime, opened)) {
+			entries.remove(path);
+			return;
+		}
+		Entry e = new Entry(size, mtime, partialHash, fullHash);
+		entries.put(path, e);
+		write(path, e);
+	}
+
+	private void rewrite() throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16);
+		out.write(MAGIC);
+		out.write(VERSION);
+		nbRecords = 0;
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			write(e.getKey(), e.getValue());
+		}
+		out.close();
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND), 1 << 16);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private void write(String path, Entry e) throws IOException {
+		writeBytes(out, path.getBytes(StandardCharsets.UTF_8));
+		ListingFormat.writeVarLong(out, e.size);
+		ListingFormat.writeVarLong(out, e.mtime);
+		writeBytes(out, e.partialHash == null ? NO_HASH : e.partialHash);
+		writeBytes(out, e.fullHash == null ? NO_HASH : e.fullHash);
+		nbRecords++;
+	}
+}
@@ -0,0 +1,367 @@
+package name.herve.dupedir;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+// Counter specialized for int keys : open addressing tables of primitive keys and counts, each stripe behind its own lock so that
+// concurrent updates of different keys rarely wait for each other
+public class IntCounter {
+	public interface EntryConsumer {
+		void accept(int key, long count);
+	}
+
+	// entries ordered by count or by key, built on the first iteration and shared until the counter changes
+	private class SortedView implements Iterable<Pair<Integer, Long>> {
+		private boolean byKey;
+		private boolean revert;
+
+		private SortedView(boolean byKey, boolean revert) {
+			super();
+			this.byKey = byKey;
+			this.revert = revert;
+		}
+
+		@Override
+		public Iterator<Pair<Integer, Long>> iterator() {
+			Snapshot s = sorted(byKey);
+			return new Iterator<Pair<Integer, Long>>() {
+				private int i = 0;
+
+				@Override
+				public boolean hasNext() {
+					return i < s.keys.length;
+				}
+
+				@Override
+				public Pair<Integer, Long> next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					int idx = revert ? s.keys.length - 1 - i : i;
+					i++;
+					return Pair.of(s.keys[idx], s.counts[idx]);
+				}
+			};
+		}
+	}
+
+	private static class Snapshot {
+		private int[] keys;
+		private long[] counts;
+		private long modCount;
+	}
+
+	private static class Stripe {
+		private int[] keys;
+		private long[] counts;
+		private int mask;
+		private int size;
+		private int maxSize;
+		private boolean hasFreeKey;
+		private long freeKeyCount;
+		private long modCount;
+
+		private Stripe(int capacity) {
+			super();
+			allocate(capacity);
+		}
+
+		private synchronized long addTo(int key, long nb) {
+			modCount++;
+			if (key == FREE) {
+				if (!hasFreeKey) {
+					hasFreeKey = true;
+					size++;
+				}
+				freeKeyCount += nb;
+				return freeKeyCount;
+			}
+			int pos = slot(key) & mask;
+			int k;
+			while ((k = keys[pos]) != FREE) {
+				if (k == key) {
+					counts[pos] += nb;
+					return counts[pos];
+				}
+				pos = (pos + 1) & mask;
+			}
+			keys[pos] = key;
+			counts[pos] = nb;
+			if (++size > maxSize) {
+				rehash(keys.length << 1);
+			}
+			return nb;
+		}
+
+		private void allocate(int capacity) {
+			keys = new int[capacity];
+			Arrays.fill(keys, FREE);
+			counts = new long[capacity];
+			mask = capacity - 1;
+			maxSize = (int) (capacity * LOAD_FACTOR);
+		}
+
+		private synchronized void clear() {
+			modCount++;
+			allocate(16);
+			size = 0;
+			hasFreeKey = false;
+			freeKeyCount = 0;
+		}
+
+		private synchronized void forEach(EntryConsumer c) {
+			if (hasFreeKey) {
+				c.accept(FREE, freeKeyCount);
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != FREE) {
+					c.accept(keys[i], counts[i]);
+				}
+			}
+		}
+
+		private synchronized long get(int key) {
+			if (key == FREE) {
+				return hasFreeKey ? freeKeyCount : 0;
+			}
+			int pos = slot(key) & mask;
+			int k;
+			while ((k = keys[pos]) != FREE) {
+				if (k == key) {
+					return counts[pos];
+				}
+				pos = (pos + 1) & mask;
+			}
+			return 0;
+		}
+
+		private synchronized long getModCount() {
+			return modCount;
+		}
+
+		private void rehash(int capacity) {
+			int[] oldKeys = keys;
+			long[] oldCounts = counts;
+			allocate(capacity);
+			for (int i = 0; i < oldKeys.length; i++) {
+				int key = oldKeys[i];
+				if (key != FREE) {
+					int pos = slot(key) & mask;
+					while (keys[pos] != FREE) {
+						pos = (pos + 1) & mask;
+					}
+					keys[pos] = key;
+					counts[pos] = oldCounts[i];
+				}
+			}
+		}
+
+		private synchronized void set(int key, long nb) {
+			addTo(key, nb - get(key));
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+	}
+
+	// marks a free slot, the key itself is stored apart
+	private static final int FREE = Integer.MIN_VALUE;
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private static int hash(int key) {
+		return key * 0x9E3779B9;
+	}
+
+	private static int slot(int key) {
+		int h = hash(key);
+		return h ^ (h >>> 16);
+	}
+
+	private Stripe[] stripes;
+	private int stripeShift;
+	private volatile Snapshot byCount;
+	private volatile Snapshot byKey;
+
+	public IntCounter() {
+		this(4 * Runtime.getRuntime().availableProcessors());
+	}
+
+	public IntCounter(int nbStripes) {
+		super();
+		int n = Integer.highestOneBit(Math.max(1, Math.min(1 << 16, nbStripes) * 2 - 1));
+		stripes = new Stripe[n];
+		for (int s = 0; s < n; s++) {
+			stripes[s] = new Stripe(16);
+		}
+		stripeShift = 32 - Integer.numberOfTrailingZeros(n);
+	}
+
+	public IntCounter add(int key) {
+		return add(key, 1);
+	}
+
+	public IntCounter add(int key, long nb) {
+		stripe(key).addTo(key, nb);
+		return this;
+	}
+
+	public void clear() {
+		for (Stripe s : stripes) {
+			s.clear();
+		}
+	}
+
+	public void forEach(EntryConsumer c) {
+		for (Stripe s : stripes) {
+			s.forEach(c);
+		}
+	}
+
+	public long getCount(int key) {
+		return stripe(key).get(key);
+	}
+
+	// Integer.MIN_VALUE when empty
+	public int getMax() {
+		Snapshot s = sorted(false);
+		return s.keys.length == 0 ? FREE : s.keys[s.keys.length - 1];
+	}
+
+	public long getSum() {
+		long[] sum = new long[1];
+		forEach((k, c) -> sum[0] += c);
+		return sum[0];
+	}
+
+	public Iterable<Pair<Integer, Long>> inverseSort() {
+		return new SortedView(false, true);
+	}
+
+	public Iterable<Pair<Integer, Long>> inverseSortKey() {
+		return new SortedView(true, true);
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	// ties at the limit keep the highest keys
+	public synchronized void keepTopK(int k) {
+		Snapshot s = sorted(false);
+		int n = s.keys.length;
+		if (k >= n) {
+			return;
+		}
+		clear();
+		for (int i = Math.max(0, n - k); i < n; i++) {
+			add(s.keys[i], s.counts[i]);
+		}
+	}
+
+	private long modCount() {
+		long modCount = 0;
+		for (Stripe s : stripes) {
+			modCount += s.getModCount();
+		}
+		return modCount;
+	}
+
+	public IntCounter set(int key, long nb) {
+		stripe(key).set(key, nb);
+		return this;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe s : stripes) {
+			size += s.size();
+		}
+		return size;
+	}
+
+	private Snapshot snapshot() {
+		Snapshot s = new Snapshot();
+		s.modCount = modCount();
+		int n = size();
+		int[] keys = new int[n];
+		long[] counts = new long[n];
+		int[] i = new int[1];
+		forEach((k, c) -> {
+			if (i[0] < keys.length) {
+				keys[i[0]] = k;
+				counts[i[0]] = c;
+				i[0]++;
+			}
+		});
+		s.keys = Arrays.copyOf(keys, i[0]);
+		s.counts = Arrays.copyOf(counts, i[0]);
+		return s;
+	}
+
+	public Iterable<Pair<Integer, Long>> sort() {
+		return new SortedView(false, false);
+	}
+
+	// ascending, by count then key or by key only, sorted again only if the counter changed since the last call
+	private Snapshot sorted(boolean onKeys) {
+		Snapshot cached = onKeys ? byKey : byCount;
+		if ((cached != null) && (cached.modCount == modCount())) {
+			return cached;
+		}
+		Snapshot s = snapshot();
+		int n = s.keys.length;
+		Integer[] idx = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			idx[i] = i;
+		}
+		Arrays.sort(idx, (a, b) -> {
+			if (!onKeys && (s.counts[a] != s.counts[b])) {
+				return Long.compare(s.counts[a], s.counts[b]);
+			}
+			return Integer.compare(s.keys[a], s.keys[b]);
+		});
+		Snapshot sorted = new Snapshot();
+		sorted.modCount = s.modCount;
+		sorted.keys = new int[n];
+		sorted.counts = new long[n];
+		for (int i = 0; i < n; i++) {
+			sorted.keys[i] = s.keys[idx[i]];
+			sorted.counts[i] = s.counts[idx[i]];
+		}
+		if (onKeys) {
+			byKey = sorted;
+		} else {
+			byCount = sorted;
+		}
+		return sorted;
+	}
+
+	public Iterable<Pair<Integer, Long>> sortKey() {
+		return new SortedView(true, false);
+	}
+
+	private Stripe stripe(int key) {
+		return stripes.length == 1 ? stripes[0] : stripes[hash(key) >>> stripeShift];
+	}
+
+	public Counter<Integer> toCounter() {
+		Counter<Integer> c = new Counter<>();
+		forEach((k, nb) -> c.add(k, nb));
+		return c;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(getClass().getSimpleName()).append(" {");
+		boolean first = true;
+		for (Pair<Integer, Long> p : sortKey()) {
+			sb.append(first ? "" : ", ").append(p.getKey()).append('=').append(p.getValue());
+			first = false;
+		}
+		return sb.append('}').toString();
+	}
+}
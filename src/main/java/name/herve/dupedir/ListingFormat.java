@@ -0,0 +1,118 @@
+package name.herve.dupedir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ListingFormat {
+	// binary listing layout :
+	// MAGIC, VERSION, flags
+	// blocks : varint nbEntries, varint nbBytes, entries ; a block with 0 entries ends the file
+	// entry : varint shared dir prefix, varint dir suffix length, dir suffix, varint name length, name [, varint size + 1]
+	// the first entry of each block has no shared prefix, so blocks can be decoded independently
+	public static final byte[] MAGIC = { 'D', 'D', 'L', 'B' };
+	public static final int VERSION = 1;
+	public static final int FLAG_SIZES = 1;
+	public static final int HEADER_SIZE = MAGIC.length + 2;
+	public static final int BLOCK_SIZE = 4096;
+	public static final long UNKNOWN_SIZE = -1;
+
+	public static final char SEPARATOR = File.separatorChar;
+
+	public static String getDir(String path) {
+		int idx = path.lastIndexOf(SEPARATOR);
+		if ((idx < 0) || (idx == (path.length() - 1))) {
+			return null;
+		}
+		String dir = path.substring(0, idx);
+		if (dir.indexOf(SEPARATOR) < 0) {
+			// the parent is a root, keep its separator ('/' or 'C:\')
+			dir = path.substring(0, idx + 1);
+		}
+		return dir;
+	}
+
+	public static String getName(String path) {
+		return path.substring(path.lastIndexOf(SEPARATOR) + 1);
+	}
+
+	public static boolean isBinary(Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			byte[] b = in.readNBytes(MAGIC.length);
+			if (b.length < MAGIC.length) {
+				return false;
+			}
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (b[i] != MAGIC[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	// returns whether the entries carry a file size
+	public static boolean readHeader(ByteBuffer header, Path file) throws IOException {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (header.get() != MAGIC[i]) {
+				throw new IOException("not a binary listing : " + file);
+			}
+		}
+		int version = header.get();
+		if (version != VERSION) {
+			throw new IOException("unsupported binary listing version " + version + " in " + file);
+		}
+		return (header.get() & FLAG_SIZES) != 0;
+	}
+
+	public static int readVarInt(ByteBuffer in) {
+		return (int) readVarLong(in);
+	}
+
+	public static int readVarInt(InputStream in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	public static long readVarLong(InputStream in) throws IOException {
+		long v = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.read();
+			if (b < 0) {
+				throw new IOException("truncated binary listing");
+			}
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+
+	public static long readVarLong(ByteBuffer in) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
+
+	public static void writeVarLong(OutputStream out, long v) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private ListingFormat() {
+		super();
+	}
+}
@@ -0,0 +1,243 @@
+package name.herve.dupedir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ListingLoader {
+	private static class Chunk {
+		private Path file;
+		private long start;
+		private long end;
+		private boolean binary;
+		private boolean withSizes;
+
+		public Chunk(Path file, long start, long end, boolean binary, boolean withSizes) {
+			super();
+			this.file = file;
+			this.start = start;
+			this.end = end;
+			this.binary = binary;
+			this.withSizes = withSizes;
+		}
+	}
+
+	// files of a chunk grouped by directory, in listing order
+	private static class PartialIndex implements ListingReader.Handler {
+		private Map<String, List<String>> files;
+		private String lastDir;
+		private List<String> lastNames;
+		private long nbFiles;
+		private boolean matchSizes;
+
+		public PartialIndex(boolean matchSizes) {
+			super();
+			this.matchSizes = matchSizes;
+			files = new LinkedHashMap<>();
+			nbFiles = 0;
+		}
+
+		@Override
+		public void file(String dir, String name, long size) {
+			if ((lastNames == null) || ((dir == null) ? (lastDir != null) : !dir.equals(lastDir))) {
+				lastNames = files.get(dir);
+				if (lastNames == null) {
+					lastNames = new ArrayList<>();
+					files.put(dir, lastNames);
+				}
+				lastDir = dir;
+			}
+			lastNames.add(matchSizes ? DupedirFinder.matchingKey(name, size) : name);
+			nbFiles++;
+		}
+	}
+
+	private static final long MIN_CHUNK_SIZE = 1L << 20;
+	private static final long MAX_CHUNK_SIZE = 64L << 20;
+
+	private int nbThreads;
+	private long chunkSize;
+	private long nbFiles;
+	private boolean matchSizes;
+
+	public ListingLoader(int nbThreads) {
+		super();
+		this.nbThreads = Math.max(1, nbThreads);
+		chunkSize = -1;
+		nbFiles = 0;
+		matchSizes = false;
+	}
+
+	private long getChunkSize(long fileSize) {
+		if (chunkSize > 0) {
+			return chunkSize;
+		}
+		return Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, fileSize / (4 * nbThreads)));
+	}
+
+	public long getNbFiles() {
+		return nbFiles;
+	}
+
+	public int getNbThreads() {
+		return nbThreads;
+	}
+
+	public boolean isMatchSizes() {
+		return matchSizes;
+	}
+
+	public void load(List<Path> listings, DupedirFinder index) throws IOException {
+		List<Chunk> chunks = new ArrayList<>();
+		for (Path listing : listings) {
+			chunks.addAll(split(listing));
+		}
+
+		// chunks are parsed ahead by the pool, and merged in listing order by the calling thread
+		ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+		try {
+			Deque<Future<PartialIndex>> pending = new ArrayDeque<>();
+			Iterator<Chunk> it = chunks.iterator();
+			while (it.hasNext() || !pending.isEmpty()) {
+				while (it.hasNext() && (pending.size() < (2 * nbThreads))) {
+					Chunk c = it.next();
+					pending.add(pool.submit(() -> parse(c)));
+				}
+				PartialIndex partial = pending.poll().get();
+				for (Entry<String, List<String>> e : partial.files.entrySet()) {
+					index.addFilesToIndex(e.getKey(), e.getValue());
+				}
+				nbFiles += partial.nbFiles;
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private PartialIndex parse(Chunk c) throws IOException {
+		PartialIndex partial = new PartialIndex(matchSizes);
+		try (FileChannel ch = FileChannel.open(c.file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, c.start, c.end - c.start);
+			if (c.binary) {
+				while (buf.hasRemaining()) {
+					int nbEntries = ListingFormat.readVarInt(buf);
+					if (nbEntries == 0) {
+						break;
+					}
+					int nbBytes = ListingFormat.readVarInt(buf);
+					ByteBuffer block = buf.slice();
+					block.limit(nbBytes);
+					ListingReader.decodeBlock(block, nbEntries, c.withSizes, partial);
+					buf.position(buf.position() + nbBytes);
+				}
+			} else {
+				ListingReader.decodeLines(buf, partial);
+			}
+		}
+		return partial;
+	}
+
+	public void setChunkSize(long chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public void setMatchSizes(boolean matchSizes) {
+		this.matchSizes = matchSizes;
+	}
+
+	private List<Chunk> split(Path listing) throws IOException {
+		List<Chunk> chunks = new ArrayList<>();
+		boolean binary = ListingFormat.isBinary(listing);
+		try (FileChannel ch = FileChannel.open(listing, StandardOpenOption.READ)) {
+			long size = ch.size();
+			long cs = getChunkSize(size);
+			if (binary) {
+				ByteBuffer header = ByteBuffer.allocate(ListingFormat.HEADER_SIZE);
+				ch.read(header, 0);
+				header.flip();
+				boolean withSizes = ListingFormat.readHeader(header, listing);
+				if (matchSizes && !withSizes) {
+					Log.log(true, listing + " has no file sizes, its files are matched on their names only");
+				}
+
+				// only the block headers are read here, the blocks themselves are decoded by the workers
+				ByteBuffer bh = ByteBuffer.allocate(20);
+				long pos = ListingFormat.HEADER_SIZE;
+				long start = pos;
+				while (pos < size) {
+					bh.clear();
+					ch.read(bh, pos);
+					bh.flip();
+					int nbEntries = ListingFormat.readVarInt(bh);
+					if (nbEntries == 0) {
+						break;
+					}
+					int nbBytes = ListingFormat.readVarInt(bh);
+					pos += bh.position() + nbBytes;
+					if ((pos - start) >= cs) {
+						chunks.add(new Chunk(listing, start, pos, true, withSizes));
+						start = pos;
+					}
+				}
+				if (pos > start) {
+					chunks.add(new Chunk(listing, start, pos, true, withSizes));
+				}
+			} else {
+				if (matchSizes) {
+					Log.log(true, listing + " has no file sizes, its files are matched on their names only");
+				}
+				ByteBuffer buf = ByteBuffer.allocate(4096);
+				long start = 0;
+				while (start < size) {
+					long end = Math.min(size, start + cs);
+					// move the boundary just after the next newline
+					boolean found = end == size;
+					while (!found) {
+						buf.clear();
+						int n = ch.read(buf, end);
+						if (n <= 0) {
+							end = size;
+							break;
+						}
+						for (int i = 0; i < n; i++) {
+							if (buf.get(i) == '\n') {
+								end += i + 1;
+								found = true;
+								break;
+							}
+						}
+						if (!found) {
+							end += n;
+						}
+					}
+					chunks.add(new Chunk(listing, start, end, false, false));
+					start = end;
+				}
+			}
+		}
+		return chunks;
+	}
+}
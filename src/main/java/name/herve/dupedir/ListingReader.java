@@ -0,0 +1,134 @@
+package name.herve.dupedir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class ListingReader {
+	public interface Handler {
+		void file(String dir, String name, long size);
+	}
+
+	static int decodeBlock(ByteBuffer buf, int nbEntries, boolean withSizes, Handler h) {
+		byte[] dirBytes = new byte[256];
+		int dirLength = 0;
+		String dir = null;
+		for (int i = 0; i < nbEntries; i++) {
+			int shared = ListingFormat.readVarInt(buf);
+			int suffix = ListingFormat.readVarInt(buf);
+			if ((dir == null) || (shared != dirLength) || (suffix > 0)) {
+				if (shared + suffix > dirBytes.length) {
+					byte[] nb = new byte[Math.max(2 * dirBytes.length, shared + suffix)];
+					System.arraycopy(dirBytes, 0, nb, 0, shared);
+					dirBytes = nb;
+				}
+				buf.get(dirBytes, shared, suffix);
+				dirLength = shared + suffix;
+				dir = new String(dirBytes, 0, dirLength, StandardCharsets.UTF_8);
+			}
+			byte[] name = new byte[ListingFormat.readVarInt(buf)];
+			buf.get(name);
+			long size = withSizes ? ListingFormat.readVarLong(buf) - 1 : ListingFormat.UNKNOWN_SIZE;
+			h.file(dir.isEmpty() ? null : dir, new String(name, StandardCharsets.UTF_8), size);
+		}
+		return nbEntries;
+	}
+
+	static long decodeLines(ByteBuffer buf, Handler h) {
+		long nb = 0;
+		byte[] line = new byte[1024];
+		int len = 0;
+		while (buf.hasRemaining()) {
+			byte b = buf.get();
+			if (b == '\n') {
+				nb += decodeLine(line, len, h);
+				len = 0;
+			} else {
+				if (len == line.length) {
+					byte[] nl = new byte[2 * line.length];
+					System.arraycopy(line, 0, nl, 0, len);
+					line = nl;
+				}
+				line[len++] = b;
+			}
+		}
+		if (len > 0) {
+			nb += decodeLine(line, len, h);
+		}
+		return nb;
+	}
+
+	private static int decodeLine(byte[] line, int len, Handler h) {
+		return readTextLine(new String(line, 0, len, StandardCharsets.UTF_8), h) ? 1 : 0;
+	}
+
+	static boolean readTextLine(String line, Handler h) {
+		line = line.strip();
+		if (line.isBlank() || line.startsWith("#")) {
+			return false;
+		}
+		if (!new File(line).isAbsolute()) {
+			line = Paths.get(line).toAbsolutePath().toString();
+		}
+		h.file(ListingFormat.getDir(line), ListingFormat.getName(line), ListingFormat.UNKNOWN_SIZE);
+		return true;
+	}
+
+	private long nbRead;
+
+	public ListingReader() {
+		super();
+		nbRead = 0;
+	}
+
+	public long getNbRead() {
+		return nbRead;
+	}
+
+	public void read(Path file, Handler h) throws IOException {
+		if (ListingFormat.isBinary(file)) {
+			readBinary(file, h);
+		} else {
+			readText(Files.newInputStream(file), h);
+		}
+	}
+
+	private void readBinary(Path file, Handler h) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			byte[] header = new byte[ListingFormat.HEADER_SIZE];
+			in.readFully(header);
+			boolean withSizes = ListingFormat.readHeader(ByteBuffer.wrap(header), file);
+
+			byte[] block = new byte[1 << 16];
+			int nbEntries;
+			while ((nbEntries = ListingFormat.readVarInt(in)) > 0) {
+				int nbBytes = ListingFormat.readVarInt(in);
+				if (nbBytes > block.length) {
+					block = new byte[nbBytes];
+				}
+				in.readFully(block, 0, nbBytes);
+				nbRead += decodeBlock(ByteBuffer.wrap(block, 0, nbBytes), nbEntries, withSizes, h);
+			}
+		}
+	}
+
+	public void readText(InputStream in, Handler h) throws IOException {
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line = null;
+			while ((line = r.readLine()) != null) {
+				if (readTextLine(line, h)) {
+					nbRead++;
+				}
+			}
+		}
+	}
+}
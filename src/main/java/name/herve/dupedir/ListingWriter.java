@@ -0,0 +1,117 @@
+package name.herve.dupedir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ListingWriter implements Closeable {
+	private OutputStream out;
+	private boolean binary;
+	private boolean withSizes;
+	private ByteArrayOutputStream block;
+	private int nbInBlock;
+	private String lastDir;
+	private byte[] lastDirBytes;
+	private long nbWritten;
+
+	public ListingWriter(Path file, boolean binary, boolean withSizes) throws IOException {
+		super();
+		this.binary = binary;
+		this.withSizes = binary && withSizes;
+		out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+		if (binary) {
+			out.write(ListingFormat.MAGIC);
+			out.write(ListingFormat.VERSION);
+			out.write(this.withSizes ? ListingFormat.FLAG_SIZES : 0);
+			block = new ByteArrayOutputStream(1 << 16);
+		}
+		nbInBlock = 0;
+		nbWritten = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (binary) {
+			flushBlock();
+			ListingFormat.writeVarLong(out, 0);
+		}
+		out.close();
+	}
+
+	private void flushBlock() throws IOException {
+		if (nbInBlock == 0) {
+			return;
+		}
+		ListingFormat.writeVarLong(out, nbInBlock);
+		ListingFormat.writeVarLong(out, block.size());
+		block.writeTo(out);
+		block.reset();
+		nbInBlock = 0;
+		lastDir = null;
+		lastDirBytes = null;
+	}
+
+	public long getNbWritten() {
+		return nbWritten;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	public boolean isWithSizes() {
+		return withSizes;
+	}
+
+	public void write(String path) throws IOException {
+		write(path, ListingFormat.UNKNOWN_SIZE);
+	}
+
+	public void write(String path, long size) throws IOException {
+		nbWritten++;
+		if (!binary) {
+			out.write((path + "\n").getBytes(StandardCharsets.UTF_8));
+			return;
+		}
+
+		String dir = ListingFormat.getDir(path);
+		if (dir == null) {
+			dir = "";
+		}
+		String name = ListingFormat.getName(path);
+
+		byte[] dirBytes = lastDirBytes;
+		if (!dir.equals(lastDir)) {
+			dirBytes = dir.getBytes(StandardCharsets.UTF_8);
+		}
+		int shared = 0;
+		if (lastDirBytes != null) {
+			int max = Math.min(lastDirBytes.length, dirBytes.length);
+			while ((shared < max) && (lastDirBytes[shared] == dirBytes[shared])) {
+				shared++;
+			}
+		}
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+		ListingFormat.writeVarLong(block, shared);
+		ListingFormat.writeVarLong(block, dirBytes.length - shared);
+		block.write(dirBytes, shared, dirBytes.length - shared);
+		ListingFormat.writeVarLong(block, nameBytes.length);
+		block.write(nameBytes);
+		if (withSizes) {
+			ListingFormat.writeVarLong(block, Math.max(ListingFormat.UNKNOWN_SIZE, size) + 1);
+		}
+
+		lastDir = dir;
+		lastDirBytes = dirBytes;
+		nbInBlock++;
+		if (nbInBlock >= ListingFormat.BLOCK_SIZE) {
+			flushBlock();
+		}
+	}
+}
@@ -1,20 +1,39 @@
 package name.herve.dupedir;
 
 import java.io.PrintStream;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 public class Log {
-	private static SimpleDateFormat DTF;
+	// the date and time down to the second, formatted once per second
+	private static class Stamp {
+		private long second;
+		private String prefix;
 
-	static {
-		DTF = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		private Stamp(long second) {
+			super();
+			this.second = second;
+			prefix = DTF.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()));
+		}
+	}
+
+	private static final DateTimeFormatter DTF = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	private static volatile Stamp stamp;
+	private static volatile boolean quiet = false;
+
+	public static boolean isQuiet() {
+		return quiet;
 	}
 
 	public static void log(boolean isError, String msg) {
+		if (quiet && !isError) {
+			return;
+		}
 		@SuppressWarnings("resource")
 		PrintStream ps = isError ? System.err : System.out;
-		ps.println("[" + DTF.format(new Date()) + "]   " + msg);
+		ps.println("[" + timestamp() + "]   " + msg);
 	}
 
 	public static void log(boolean isError, Throwable e) {
@@ -24,4 +43,26 @@ public class Log {
 	public static void log(String msg) {
 		log(false, msg);
 	}
+
+	// errors are still reported
+	public static void setQuiet(boolean quiet) {
+		Log.quiet = quiet;
+	}
+
+	// yyyy-MM-dd HH:mm:ss.SSS, safe to call from any thread
+	public static String timestamp() {
+		long now = System.currentTimeMillis();
+		long second = Math.floorDiv(now, 1000L);
+		int millis = (int) Math.floorMod(now, 1000L);
+		Stamp s = stamp;
+		if ((s == null) || (s.second != second)) {
+			s = new Stamp(second);
+			stamp = s;
+		}
+		StringBuilder sb = new StringBuilder(s.prefix.length() + 4).append(s.prefix).append('.');
+		if (millis < 100) {
+			sb.append(millis < 10 ? "00" : "0");
+		}
+		return sb.append(millis).toString();
+	}
 }
@@ -0,0 +1,233 @@
+package name.herve.dupedir;
+
+import java.util.Arrays;
+
+public class LongIntHashMap {
+	public class Cursor {
+		private int pos;
+		private long key;
+		private int value;
+
+		private Cursor() {
+			super();
+			pos = hasFreeKey ? -2 : -1;
+		}
+
+		public long key() {
+			return key;
+		}
+
+		public boolean next() {
+			if (pos == -2) {
+				pos = -1;
+				key = FREE;
+				value = freeKeyValue;
+				return true;
+			}
+			while (++pos < keys.length) {
+				if (keys[pos] != FREE) {
+					key = keys[pos];
+					value = values[pos];
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public int value() {
+			return value;
+		}
+	}
+
+	public interface EntryConsumer {
+		void accept(long key, int value);
+	}
+
+	// marks a free slot, the key itself is stored apart
+	private static final long FREE = Long.MIN_VALUE;
+	private static final float LOAD_FACTOR = 0.6f;
+	// the largest power of two an array can hold
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	public static long pairKey(int id1, int id2) {
+		return id1 < id2 ? ((long) id1 << 32) | id2 : ((long) id2 << 32) | id1;
+	}
+
+	public static int pairKeyFirst(long key) {
+		return (int) (key >>> 32);
+	}
+
+	public static int pairKeySecond(long key) {
+		return (int) key;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private int maxSize;
+	private boolean hasFreeKey;
+	private int freeKeyValue;
+
+	public LongIntHashMap() {
+		this(1024);
+	}
+
+	public LongIntHashMap(int expectedSize) {
+		super();
+		int capacity = (int) Math.min(MAX_CAPACITY, (long) Integer.highestOneBit(Math.max(16, (int) Math.min(MAX_CAPACITY, (long) (expectedSize / LOAD_FACTOR)))) << 1);
+		allocate(capacity);
+		size = 0;
+		hasFreeKey = false;
+	}
+
+	public int addTo(long key, int incr) {
+		if (key == FREE) {
+			if (!hasFreeKey) {
+				hasFreeKey = true;
+				size++;
+			}
+			freeKeyValue += incr;
+			return freeKeyValue;
+		}
+		int pos = hash(key) & mask;
+		long k;
+		while ((k = keys[pos]) != FREE) {
+			if (k == key) {
+				values[pos] += incr;
+				return values[pos];
+			}
+			pos = (pos + 1) & mask;
+		}
+		keys[pos] = key;
+		values[pos] = incr;
+		if (++size > maxSize) {
+			grow();
+		}
+		return incr;
+	}
+
+	public void addAll(LongIntHashMap other) {
+		other.forEach((k, v) -> addTo(k, v));
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, FREE);
+		values = new int[capacity];
+		mask = capacity - 1;
+		maxSize = (int) (capacity * LOAD_FACTOR);
+	}
+
+	public boolean containsKey(long key) {
+		if (key == FREE) {
+			return hasFreeKey;
+		}
+		int pos = hash(key) & mask;
+		long k;
+		while ((k = keys[pos]) != FREE) {
+			if (k == key) {
+				return true;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return false;
+	}
+
+	// the map must not be modified while a cursor is in use
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	public void forEach(EntryConsumer c) {
+		if (hasFreeKey) {
+			c.accept(FREE, freeKeyValue);
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE) {
+				c.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	public int get(long key) {
+		return get(key, 0);
+	}
+
+	public int get(long key, int defaultValue) {
+		if (key == FREE) {
+			return hasFreeKey ? freeKeyValue : defaultValue;
+		}
+		int pos = hash(key) & mask;
+		long k;
+		while ((k = keys[pos]) != FREE) {
+			if (k == key) {
+				return values[pos];
+			}
+			pos = (pos + 1) & mask;
+		}
+		return defaultValue;
+	}
+
+	private void grow() {
+		if (keys.length >= MAX_CAPACITY) {
+			throw new IllegalStateException("too many keys for a LongIntHashMap : " + size + " keys, its capacity can not grow beyond " + MAX_CAPACITY + " slots");
+		}
+		rehash(keys.length << 1);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void put(long key, int value) {
+		if (key == FREE) {
+			if (!hasFreeKey) {
+				hasFreeKey = true;
+				size++;
+			}
+			freeKeyValue = value;
+			return;
+		}
+		int pos = hash(key) & mask;
+		long k;
+		while ((k = keys[pos]) != FREE) {
+			if (k == key) {
+				values[pos] = value;
+				return;
+			}
+			pos = (pos + 1) & mask;
+		}
+		keys[pos] = key;
+		values[pos] = value;
+		if (++size > maxSize) {
+			grow();
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != FREE) {
+				int pos = hash(key) & mask;
+				while (keys[pos] != FREE) {
+					pos = (pos + 1) & mask;
+				}
+				keys[pos] = key;
+				values[pos] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+}
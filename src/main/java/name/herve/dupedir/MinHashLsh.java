@@ -0,0 +1,195 @@
+package name.herve.dupedir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// candidate pairs of directories with similar sets of file names : each directory gets nbBands * nbRows min hashes of its names,
+// two directories whose rows agree on at least one band become a candidate, with a probability 1 - (1 - J^nbRows)^nbBands for a Jaccard
+// similarity J, whatever the number of directories sharing each name
+public class MinHashLsh {
+	public static final int DEFAULT_MAX_BUCKET_SIZE = 100;
+	private static final int DIRS_BATCH = 1024;
+	private static final int NO_BAND = 0;
+
+	private static long mix(long x) {
+		x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+		x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return x ^ (x >>> 33);
+	}
+
+	private int nbBands;
+	private int nbRows;
+	private int nbThreads;
+	private int maxBucketSize;
+	private long[] multipliers;
+	private long[] increments;
+	private long nbBuckets;
+	private long nbTruncatedBuckets;
+	private long nbDroppedPairs;
+
+	public MinHashLsh(int nbBands, int nbRows, int nbThreads) {
+		super();
+		this.nbBands = Math.max(1, nbBands);
+		this.nbRows = Math.max(1, nbRows);
+		this.nbThreads = Math.max(1, nbThreads);
+		maxBucketSize = DEFAULT_MAX_BUCKET_SIZE;
+		int nbHashes = this.nbBands * this.nbRows;
+		multipliers = new long[nbHashes];
+		increments = new long[nbHashes];
+		SplittableRandom rd = new SplittableRandom(42);
+		for (int h = 0; h < nbHashes; h++) {
+			multipliers[h] = rd.nextLong() | 1;
+			increments[h] = rd.nextLong();
+		}
+	}
+
+	// band keys of the directory, NO_BAND for the directories left out
+	private void bandKeys(int[] offsets, int[] names, int dir, int minNbNames, int[] mins, int[] keys) {
+		int from = offsets[dir];
+		int to = offsets[dir + 1];
+		if ((to - from) < Math.max(1, minNbNames)) {
+			Arrays.fill(keys, dir * nbBands, (dir + 1) * nbBands, NO_BAND);
+			return;
+		}
+		Arrays.fill(mins, Integer.MAX_VALUE);
+		for (int i = from; i < to; i++) {
+			long base = mix(names[i]);
+			for (int h = 0; h < mins.length; h++) {
+				int v = (int) (((base * multipliers[h]) + increments[h]) >>> 32);
+				if (v < mins[h]) {
+					mins[h] = v;
+				}
+			}
+		}
+		for (int b = 0; b < nbBands; b++) {
+			long k = b + 1;
+			for (int r = 0; r < nbRows; r++) {
+				k = mix(k ^ mins[(b * nbRows) + r]);
+			}
+			int key = (int) (k >>> 32);
+			keys[(dir * nbBands) + b] = key == NO_BAND ? 1 : key;
+		}
+	}
+
+	private int[] bandKeys(PostingLists dirToNames, int minNbNames) {
+		int nbDirs = dirToNames.getNbLists();
+		int[] offsets = dirToNames.getOffsets();
+		int[] names = dirToNames.getValues();
+		int[] keys;
+		try {
+			keys = new int[Math.multiplyExact(nbDirs, nbBands)];
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("too many band keys for " + nbDirs + " directories and " + nbBands + " bands, use fewer bands");
+		}
+		AtomicInteger nextDir = new AtomicInteger();
+		Runnable task = () -> {
+			int[] mins = new int[nbBands * nbRows];
+			int from;
+			while ((from = nextDir.getAndAdd(DIRS_BATCH)) < nbDirs) {
+				for (int d = from; d < Math.min(nbDirs, from + DIRS_BATCH); d++) {
+					bandKeys(offsets, names, d, minNbNames, mins, keys);
+				}
+			}
+		};
+
+		if (nbThreads <= 1) {
+			task.run();
+			return keys;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+		try {
+			List<Future<?>> pending = new ArrayList<>();
+			for (int t = 0; t < nbThreads; t++) {
+				pending.add(pool.submit(task));
+			}
+			for (Future<?> f : pending) {
+				f.get();
+			}
+			return keys;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// pair keys of the candidates, the values are the number of bands they share
+	public LongIntHashMap candidates(PostingLists dirToNames, int minNbNames) {
+		int nbDirs = dirToNames.getNbLists();
+		int[] keys = bandKeys(dirToNames, minNbNames);
+		LongIntHashMap candidates = new LongIntHashMap();
+		nbBuckets = 0;
+		nbTruncatedBuckets = 0;
+		nbDroppedPairs = 0;
+
+		long[] bucket = new long[nbDirs];
+		for (int b = 0; b < nbBands; b++) {
+			// band key in the high bits, directory in the low ones : sorting groups the buckets
+			int n = 0;
+			for (int d = 0; d < nbDirs; d++) {
+				int key = keys[(d * nbBands) + b];
+				if (key != NO_BAND) {
+					bucket[n++] = ((long) key << 32) | d;
+				}
+			}
+			Arrays.sort(bucket, 0, n);
+			int start = 0;
+			while (start < n) {
+				int end = start + 1;
+				while ((end < n) && ((bucket[end] >>> 32) == (bucket[start] >>> 32))) {
+					end++;
+				}
+				if ((end - start) > 1) {
+					nbBuckets++;
+					// a huge bucket only pairs each directory with the next ones, so the pairs stay linear in its size
+					long nbPaired = 0;
+					for (int i = start; i < (end - 1); i++) {
+						int last = Math.min(end, i + 1 + maxBucketSize);
+						for (int j = i + 1; j < last; j++) {
+							candidates.addTo(LongIntHashMap.pairKey((int) bucket[i], (int) bucket[j]), 1);
+						}
+						nbPaired += last - (i + 1);
+					}
+					long size = end - start;
+					if (nbPaired < ((size * (size - 1)) / 2)) {
+						nbTruncatedBuckets++;
+						nbDroppedPairs += ((size * (size - 1)) / 2) - nbPaired;
+					}
+				}
+				start = end;
+			}
+		}
+		return candidates;
+	}
+
+	public int getMaxBucketSize() {
+		return maxBucketSize;
+	}
+
+	public long getNbBuckets() {
+		return nbBuckets;
+	}
+
+	// pairs of the truncated buckets left out, counted once per band
+	public long getNbDroppedPairs() {
+		return nbDroppedPairs;
+	}
+
+	public long getNbTruncatedBuckets() {
+		return nbTruncatedBuckets;
+	}
+
+	public void setMaxBucketSize(int maxBucketSize) {
+		this.maxBucketSize = Math.max(1, maxBucketSize);
+	}
+}
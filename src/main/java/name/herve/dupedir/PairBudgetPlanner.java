@@ -0,0 +1,91 @@
+package name.herve.dupedir;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+// histogram of the posting list lengths : a name in L directories gives L * (L - 1) / 2 pairs, so the pairs counted for any cutoff on
+// the number of directories per name are known before counting them
+public class PairBudgetPlanner {
+	// a distinct pair in LongIntHashMap : 12 bytes per slot at a 0.6 load factor, and twice that while it grows
+	public static final int BYTES_PER_PAIR = 40;
+
+	private static DecimalFormat DECF = new DecimalFormat("###,###");
+
+	public static long nbPairs(long nbDirs) {
+		return (nbDirs * (nbDirs - 1)) / 2;
+	}
+
+	private long[] nbListsByLength;
+	private long nbLists;
+
+	public PairBudgetPlanner(PostingLists lists) {
+		super();
+		int[] offsets = lists.getOffsets();
+		int maxLength = 0;
+		for (int n = 0; n < lists.getNbLists(); n++) {
+			maxLength = Math.max(maxLength, offsets[n + 1] - offsets[n]);
+		}
+		nbListsByLength = new long[maxLength + 1];
+		for (int n = 0; n < lists.getNbLists(); n++) {
+			nbListsByLength[offsets[n + 1] - offsets[n]]++;
+		}
+		nbLists = lists.getNbLists();
+	}
+
+	// the highest maxNbDirForFile whose pairs fit in the budget
+	public int cutoffFor(long pairBudget) {
+		long nb = 0;
+		for (int length = 2; length < nbListsByLength.length; length++) {
+			nb += nbListsByLength[length] * nbPairs(length);
+			if (nb > pairBudget) {
+				return length - 1;
+			}
+		}
+		return Math.max(1, nbListsByLength.length - 1);
+	}
+
+	// one line per power of two of the lengths
+	public List<String> describe(int cutoff) {
+		List<String> lines = new ArrayList<>();
+		for (int from = 2; from < nbListsByLength.length; from *= 2) {
+			int to = Math.min(nbListsByLength.length - 1, (2 * from) - 1);
+			long nb = 0;
+			long pairs = 0;
+			for (int length = from; length <= to; length++) {
+				nb += nbListsByLength[length];
+				pairs += nbListsByLength[length] * nbPairs(length);
+			}
+			if (nb > 0) {
+				String status = to <= cutoff ? "counted" : (from > cutoff ? "skipped" : "counted up to " + DECF.format(cutoff));
+				lines.add("in " + DECF.format(from) + " to " + DECF.format(to) + " directories : " + DECF.format(nb) + " names, " + DECF.format(pairs) + " pairs, " + status);
+			}
+		}
+		return lines;
+	}
+
+	public int getMaxLength() {
+		return nbListsByLength.length - 1;
+	}
+
+	public long getNbLists() {
+		return nbLists;
+	}
+
+	public long getNbListsAbove(int cutoff) {
+		long nb = 0;
+		for (int length = cutoff + 1; length < nbListsByLength.length; length++) {
+			nb += nbListsByLength[length];
+		}
+		return nb;
+	}
+
+	// pair increments for the names in at most cutoff directories, an upper bound of the distinct pairs
+	public long getNbPairs(int cutoff) {
+		long nb = 0;
+		for (int length = 2; length < Math.min(cutoff + 1, nbListsByLength.length); length++) {
+			nb += nbListsByLength[length] * nbPairs(length);
+		}
+		return nb;
+	}
+}
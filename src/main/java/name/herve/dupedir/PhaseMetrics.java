@@ -0,0 +1,228 @@
+package name.herve.dupedir;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// wall time, items and memory of each phase of a run, as JFR events and as a summary file
+public class PhaseMetrics {
+	public class Phase implements AutoCloseable {
+		private String name;
+		private PhaseEvent event;
+		private long start;
+		private long wallNanos;
+		private LongAdder items;
+		private AtomicLong peakCandidates;
+		private AtomicLong skippedPostingLists;
+		private long heapUsed;
+		private long peakHeapUsed;
+		private boolean closed;
+
+		private Phase(String name) {
+			super();
+			this.name = name;
+			items = new LongAdder();
+			peakCandidates = new AtomicLong();
+			skippedPostingLists = new AtomicLong();
+			closed = false;
+			resetPeakHeap();
+			event = new PhaseEvent();
+			event.begin();
+			start = System.nanoTime();
+		}
+
+		public void addItems(long nb) {
+			items.add(nb);
+		}
+
+		public void addSkippedPostingLists(long nb) {
+			skippedPostingLists.addAndGet(nb);
+		}
+
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			wallNanos = System.nanoTime() - start;
+			event.end();
+			heapUsed = heapUsed();
+			peakHeapUsed = Math.max(heapUsed, peakHeap());
+			if (event.shouldCommit()) {
+				event.phase = name;
+				event.items = getItems();
+				event.throughput = getThroughput();
+				event.heapUsed = heapUsed;
+				event.peakHeapUsed = peakHeapUsed;
+				event.peakCandidates = getPeakCandidates();
+				event.skippedPostingLists = getSkippedPostingLists();
+				event.commit();
+			}
+			synchronized (phases) {
+				phases.add(this);
+			}
+		}
+
+		public long getHeapUsed() {
+			return heapUsed;
+		}
+
+		public long getItems() {
+			return items.sum();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getPeakCandidates() {
+			return peakCandidates.get();
+		}
+
+		public long getPeakHeapUsed() {
+			return peakHeapUsed;
+		}
+
+		public long getSkippedPostingLists() {
+			return skippedPostingLists.get();
+		}
+
+		// items per second
+		public double getThroughput() {
+			return wallNanos > 0 ? (getItems() * 1e9) / wallNanos : 0;
+		}
+
+		public long getWallMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(wallNanos);
+		}
+
+		public void setItems(long nb) {
+			items.reset();
+			items.add(nb);
+		}
+
+		public void updatePeakCandidates(long nb) {
+			peakCandidates.accumulateAndGet(nb, Math::max);
+		}
+	}
+
+	@Name("name.herve.dupedir.Phase")
+	@Label("Dupedir Phase")
+	@Category("Dupedir")
+	@Description("One phase of a run : scan, load, index, pair counting, hierarchy aggregation, ranking or verification")
+	@StackTrace(false)
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Label("Items")
+		long items;
+
+		@Label("Items per Second")
+		double throughput;
+
+		@Label("Heap Used")
+		@DataAmount
+		long heapUsed;
+
+		@Label("Peak Heap Used")
+		@DataAmount
+		long peakHeapUsed;
+
+		@Label("Peak Candidate Pairs")
+		long peakCandidates;
+
+		@Label("Skipped Posting Lists")
+		@Description("File names found in more than maxNbDirForFile directories")
+		long skippedPostingLists;
+	}
+
+	private static long heapUsed() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	// the peaks of the pools do not happen at the same time, so this is an upper bound
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if ((pool.getType() == MemoryType.HEAP) && pool.isValid() && (pool.getPeakUsage() != null)) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if ((pool.getType() == MemoryType.HEAP) && pool.isValid()) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	private List<Phase> phases;
+	private Instant start;
+	private long startNanos;
+
+	public PhaseMetrics() {
+		super();
+		phases = new ArrayList<>();
+		start = Instant.now();
+		startNanos = System.nanoTime();
+	}
+
+	public List<Phase> getPhases() {
+		synchronized (phases) {
+			return new ArrayList<>(phases);
+		}
+	}
+
+	// phases are recorded when they are closed, they should not overlap as each one resets the heap peaks
+	public Phase start(String name) {
+		return new Phase(name);
+	}
+
+	// JSON, one object per phase in the order they ended
+	public void writeSummary(Path file, int nbThreads, int maxNbDirForFile) throws IOException {
+		try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			w.write("{\n");
+			w.write("  \"start\": " + ResultSink.json(start.toString()) + ",\n");
+			w.write("  \"wallMillis\": " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + ",\n");
+			w.write("  \"nbThreads\": " + nbThreads + ",\n");
+			w.write("  \"maxNbDirForFile\": " + maxNbDirForFile + ",\n");
+			w.write("  \"heapMax\": " + Runtime.getRuntime().maxMemory() + ",\n");
+			w.write("  \"phases\": [");
+			List<Phase> all = getPhases();
+			for (int i = 0; i < all.size(); i++) {
+				Phase p = all.get(i);
+				w.write(i == 0 ? "\n" : ",\n");
+				w.write("    { \"name\": " + ResultSink.json(p.getName()) + ", \"wallMillis\": " + p.getWallMillis() + ", \"items\": " + p.getItems() + ", \"throughput\": " + Math.round(p.getThroughput())
+						+ ", \"heapUsed\": " + p.getHeapUsed() + ", \"peakHeapUsed\": " + p.getPeakHeapUsed() + ", \"peakCandidates\": " + p.getPeakCandidates() + ", \"skippedPostingLists\": "
+						+ p.getSkippedPostingLists() + " }");
+			}
+			w.write(all.isEmpty() ? "]\n" : "\n  ]\n");
+			w.write("}\n");
+		}
+	}
+}
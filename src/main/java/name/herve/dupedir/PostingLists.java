@@ -0,0 +1,157 @@
+package name.herve.dupedir;
+
+import java.util.Arrays;
+
+public class PostingLists {
+	private static final int[] EMPTY = new int[0];
+
+	// growable lists, while building
+	private int[][] lists;
+	private int[] sizes;
+	private int nbLists;
+
+	// compressed sparse rows, once frozen : values of list i are in [offsets[i], offsets[i + 1])
+	private int[] offsets;
+	private int[] values;
+
+	public PostingLists() {
+		super();
+		lists = new int[1024][];
+		sizes = new int[1024];
+		nbLists = 0;
+	}
+
+	public void add(int list, int value) {
+		if (isFrozen()) {
+			thaw();
+		}
+		ensureList(list);
+		int[] l = lists[list];
+		if (sizes[list] == l.length) {
+			l = Arrays.copyOf(l, Math.max(2, 2 * l.length));
+			lists[list] = l;
+		}
+		l[sizes[list]++] = value;
+	}
+
+	private void ensureList(int list) {
+		if (list >= lists.length) {
+			int capacity = Math.max(2 * lists.length, list + 1);
+			lists = Arrays.copyOf(lists, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+		}
+		while (nbLists <= list) {
+			lists[nbLists++] = EMPTY;
+		}
+	}
+
+	public void freeze() {
+		if (isFrozen()) {
+			return;
+		}
+		offsets = new int[nbLists + 1];
+		for (int i = 0; i < nbLists; i++) {
+			offsets[i + 1] = offsets[i] + sizes[i];
+		}
+		values = new int[offsets[nbLists]];
+		for (int i = 0; i < nbLists; i++) {
+			System.arraycopy(lists[i], 0, values, offsets[i], sizes[i]);
+		}
+		lists = null;
+		sizes = null;
+	}
+
+	public int get(int list, int i) {
+		return isFrozen() ? values[offsets[list] + i] : lists[list][i];
+	}
+
+	public int getNbLists() {
+		return nbLists;
+	}
+
+	public long getNbValues() {
+		if (isFrozen()) {
+			return values.length;
+		}
+		long nb = 0;
+		for (int i = 0; i < nbLists; i++) {
+			nb += sizes[i];
+		}
+		return nb;
+	}
+
+	public int[] getOffsets() {
+		freeze();
+		return offsets;
+	}
+
+	public int[] getValues() {
+		freeze();
+		return values;
+	}
+
+	public boolean isFrozen() {
+		return offsets != null;
+	}
+
+	// list j of the result holds the lists where j appears, in increasing order
+	public PostingLists transpose(int nbTargetLists) {
+		freeze();
+		PostingLists t = new PostingLists();
+		t.lists = null;
+		t.sizes = null;
+		t.nbLists = nbTargetLists;
+		t.offsets = new int[nbTargetLists + 1];
+		for (int v : values) {
+			t.offsets[v + 1]++;
+		}
+		for (int j = 0; j < nbTargetLists; j++) {
+			t.offsets[j + 1] += t.offsets[j];
+		}
+		t.values = new int[values.length];
+		int[] fill = Arrays.copyOf(t.offsets, nbTargetLists);
+		for (int i = 0; i < nbLists; i++) {
+			for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+				t.values[fill[values[k]]++] = i;
+			}
+		}
+		return t;
+	}
+
+	// removes one occurrence of the value, the order of the list is not kept
+	public boolean remove(int list, int value) {
+		if (list >= nbLists) {
+			return false;
+		}
+		if (isFrozen()) {
+			thaw();
+		}
+		int[] l = lists[list];
+		for (int i = 0; i < sizes[list]; i++) {
+			if (l[i] == value) {
+				l[i] = l[--sizes[list]];
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int size(int list) {
+		if (list >= nbLists) {
+			return 0;
+		}
+		return isFrozen() ? offsets[list + 1] - offsets[list] : sizes[list];
+	}
+
+	private void thaw() {
+		int capacity = Math.max(1024, nbLists);
+		lists = new int[capacity][];
+		sizes = new int[capacity];
+		for (int i = 0; i < nbLists; i++) {
+			lists[i] = Arrays.copyOfRange(values, offsets[i], offsets[i + 1]);
+			sizes[i] = lists[i].length;
+		}
+		offsets = null;
+		values = null;
+	}
+}
@@ -0,0 +1,188 @@
+package name.herve.dupedir;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import name.herve.dupedir.DupedirFinder.Dir;
+import name.herve.dupedir.DupedirFinder.DuplicateDir;
+
+// duplicates written as CSV or JSON Lines : lines are formatted in batches by the callers and written by a background thread
+public class ResultSink implements Closeable {
+	public enum Format {
+		CSV, JSONL;
+
+		public static Format of(Path file) {
+			String name = file.getFileName().toString().toLowerCase();
+			return name.endsWith(".jsonl") || name.endsWith(".json") ? JSONL : CSV;
+		}
+
+		public static Format of(String name) {
+			return valueOf(name.toUpperCase());
+		}
+	}
+
+	private static final String[] COLUMNS = { "score", "maxPct", "nbCommonFiles", "nbCommonFilesHierarchy", "nbVerifiedFiles", "nbVerifiedBytes", "dir1NbFiles", "dir1NbFilesHierarchy", "dir1",
+			"dir2NbFiles", "dir2NbFilesHierarchy", "dir2" };
+	private static final int BATCH_SIZE = 1 << 16;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int MAX_PENDING_BATCHES = 8;
+	private static final StringBuilder END = new StringBuilder();
+
+	private static String csv(String s) {
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+
+	static String json(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private Format format;
+	private Writer out;
+	private BlockingQueue<StringBuilder> pending;
+	private Thread writer;
+	private StringBuilder batch;
+	private volatile IOException error;
+	private long nbWritten;
+	private boolean closed;
+
+	public ResultSink(Path file, Format format) throws IOException {
+		super();
+		this.format = format;
+		out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+		pending = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+		batch = new StringBuilder(BATCH_SIZE + 1024);
+		nbWritten = 0;
+		closed = false;
+		if (format == Format.CSV) {
+			batch.append(String.join(",", COLUMNS)).append('\n');
+		}
+		writer = new Thread(this::drain, "dupedir-results");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	private StringBuilder column(int column) {
+		if (format == Format.CSV) {
+			return column > 0 ? batch.append(',') : batch;
+		}
+		return batch.append(column == 0 ? "{\"" : ", \"").append(COLUMNS[column]).append("\": ");
+	}
+
+	private void check() throws IOException {
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			handOver();
+			pending.put(END);
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} finally {
+			out.close();
+		}
+		check();
+	}
+
+	private void drain() {
+		try {
+			StringBuilder b;
+			while ((b = pending.take()) != END) {
+				if (error == null) {
+					try {
+						out.append(b);
+					} catch (IOException e) {
+						// reported to the next caller, the batches are still taken so that nobody waits forever
+						error = e;
+					}
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public synchronized long getNbWritten() {
+		return nbWritten;
+	}
+
+	private void handOver() throws InterruptedException {
+		if (batch.length() > 0) {
+			pending.put(batch);
+			batch = new StringBuilder(BATCH_SIZE + 1024);
+		}
+	}
+
+	private String string(String s) {
+		return format == Format.CSV ? csv(s) : json(s);
+	}
+
+	public synchronized void write(DuplicateDir dup) throws IOException {
+		check();
+		if (closed) {
+			throw new IOException("result sink closed");
+		}
+		Dir d1 = dup.getDir1();
+		Dir d2 = dup.getDir2();
+		column(0).append(dup.getScore());
+		column(1).append(dup.getMaxPct());
+		column(2).append(dup.getNbCommonFiles());
+		column(3).append(dup.getNbCommonFilesHierarchy());
+		column(4).append(dup.getNbVerifiedFiles());
+		column(5).append(dup.getNbVerifiedBytes());
+		column(6).append(d1.getNbFiles());
+		column(7).append(d1.getNbFilesHierarchy());
+		column(8).append(string(d1.getPath().toString()));
+		column(9).append(d2.getNbFiles());
+		column(10).append(d2.getNbFilesHierarchy());
+		column(11).append(string(d2.getPath().toString()));
+		batch.append(format == Format.CSV ? "\n" : "}\n");
+		nbWritten++;
+		if (batch.length() >= BATCH_SIZE) {
+			try {
+				handOver();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	public void write(Iterable<DuplicateDir> duplicates) throws IOException {
+		for (DuplicateDir dup : duplicates) {
+			write(dup);
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package name.herve.dupedir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+public class ScanSnapshot {
+	// what a directory held the last time it was listed
+	public static class DirRecord {
+		private long mtime;
+		private String[] subDirs;
+		private String[] fileNames;
+		private long[] fileSizes;
+
+		public DirRecord(long mtime, String[] subDirs, String[] fileNames, long[] fileSizes) {
+			super();
+			this.mtime = mtime;
+			this.subDirs = subDirs;
+			this.fileNames = fileNames;
+			this.fileSizes = fileSizes;
+		}
+
+		public String[] getFileNames() {
+			return fileNames;
+		}
+
+		public long[] getFileSizes() {
+			return fileSizes;
+		}
+
+		public long getMtime() {
+			return mtime;
+		}
+
+		public String[] getSubDirs() {
+			return subDirs;
+		}
+	}
+
+	public interface FileHandler {
+		void file(String dir, String name, long size);
+	}
+
+	// snapshot layout :
+	// MAGIC, VERSION
+	// records : varint path length, path, varint mtime, varint nbSubDirs, subdirs, varint nbFiles, files ; strings are varint length and UTF-8 bytes, files are name and varint size + 1
+	public static final byte[] MAGIC = { 'D', 'D', 'S', 'S' };
+	public static final int VERSION = 1;
+	// never the mtime of a directory, so that it is listed again
+	public static final long RACY_MTIME = -1;
+
+	public static String child(String dir, String name) {
+		return dir.charAt(dir.length() - 1) == ListingFormat.SEPARATOR ? dir + name : dir + ListingFormat.SEPARATOR + name;
+	}
+
+	public static ScanSnapshot read(Path file) throws IOException {
+		ScanSnapshot snapshot = new ScanSnapshot();
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			byte[] magic = in.readNBytes(MAGIC.length);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if ((magic.length < MAGIC.length) || (magic[i] != MAGIC[i])) {
+					throw new IOException("not a scan snapshot : " + file);
+				}
+			}
+			int version = in.read();
+			if (version != VERSION) {
+				throw new IOException("unsupported scan snapshot version " + version + " in " + file);
+			}
+			int nbDirs = ListingFormat.readVarInt(in);
+			for (int d = 0; d < nbDirs; d++) {
+				String path = readString(in);
+				long mtime = ListingFormat.readVarLong(in);
+				String[] subDirs = new String[ListingFormat.readVarInt(in)];
+				for (int i = 0; i < subDirs.length; i++) {
+					subDirs[i] = readString(in);
+				}
+				int nbFiles = ListingFormat.readVarInt(in);
+				String[] fileNames = new String[nbFiles];
+				long[] fileSizes = new long[nbFiles];
+				for (int i = 0; i < nbFiles; i++) {
+					fileNames[i] = readString(in);
+					fileSizes[i] = ListingFormat.readVarLong(in) - 1;
+				}
+				snapshot.records.put(path, new DirRecord(mtime, subDirs, fileNames, fileSizes));
+			}
+		}
+		return snapshot;
+	}
+
+	private static String readString(InputStream in) throws IOException {
+		int len = ListingFormat.readVarInt(in);
+		byte[] b = in.readNBytes(len);
+		if (b.length < len) {
+			throw new EOFException();
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(OutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		ListingFormat.writeVarLong(out, b.length);
+		out.write(b);
+	}
+
+	private Map<String, DirRecord> records;
+
+	public ScanSnapshot() {
+		super();
+		records = new ConcurrentHashMap<>();
+	}
+
+	public void forEachDir(String root, Consumer<String> c) {
+		Deque<String> todo = new ArrayDeque<>();
+		todo.push(root);
+		while (!todo.isEmpty()) {
+			String dir = todo.pop();
+			DirRecord r = records.get(dir);
+			if (r != null) {
+				c.accept(dir);
+				for (String sub : r.subDirs) {
+					todo.push(child(dir, sub));
+				}
+			}
+		}
+	}
+
+	// the files of the directory and of all the directories below, as they were recorded
+	public void forEachFile(String root, FileHandler h) {
+		Deque<String> todo = new ArrayDeque<>();
+		todo.push(root);
+		while (!todo.isEmpty()) {
+			String dir = todo.pop();
+			DirRecord r = records.get(dir);
+			if (r == null) {
+				continue;
+			}
+			for (int i = 0; i < r.fileNames.length; i++) {
+				h.file(dir, r.fileNames[i], r.fileSizes[i]);
+			}
+			for (String sub : r.subDirs) {
+				todo.push(child(dir, sub));
+			}
+		}
+	}
+
+	public DirRecord get(String dir) {
+		return records.get(dir);
+	}
+
+	public void put(String dir, DirRecord record) {
+		records.put(dir, record);
+	}
+
+	// forgets the directory and all the directories below, reporting their files
+	public void remove(String root, FileHandler h) {
+		forEachFile(root, h);
+		Deque<String> todo = new ArrayDeque<>();
+		todo.push(root);
+		while (!todo.isEmpty()) {
+			String dir = todo.pop();
+			DirRecord r = records.remove(dir);
+			if (r != null) {
+				for (String sub : r.subDirs) {
+					todo.push(child(dir, sub));
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return records.size();
+	}
+
+	public void write(Path file) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+			out.write(MAGIC);
+			out.write(VERSION);
+			ListingFormat.writeVarLong(out, records.size());
+			for (Map.Entry<String, DirRecord> e : records.entrySet()) {
+				DirRecord r = e.getValue();
+				writeString(out, e.getKey());
+				ListingFormat.writeVarLong(out, r.mtime);
+				ListingFormat.writeVarLong(out, r.subDirs.length);
+				for (String sub : r.subDirs) {
+					writeString(out, sub);
+				}
+				ListingFormat.writeVarLong(out, r.fileNames.length);
+				for (int i = 0; i < r.fileNames.length; i++) {
+					writeString(out, r.fileNames[i]);
+					ListingFormat.writeVarLong(out, r.fileSizes[i] + 1);
+				}
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
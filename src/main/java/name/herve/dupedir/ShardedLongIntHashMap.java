@@ -0,0 +1,89 @@
+package name.herve.dupedir;
+
+public class ShardedLongIntHashMap {
+	public class Cursor {
+		private int shard;
+		private LongIntHashMap.Cursor current;
+
+		private Cursor() {
+			super();
+			shard = 0;
+			current = shards[0].cursor();
+		}
+
+		public long key() {
+			return current.key();
+		}
+
+		public boolean next() {
+			while (!current.next()) {
+				if (++shard >= shards.length) {
+					return false;
+				}
+				current = shards[shard].cursor();
+			}
+			return true;
+		}
+
+		public int value() {
+			return current.value();
+		}
+	}
+
+	public static int shardOf(long key, int nbShards) {
+		long h = key * 0xC2B2AE3D27D4EB4FL;
+		return (int) ((h >>> 32) % nbShards);
+	}
+
+	private LongIntHashMap[] shards;
+
+	public ShardedLongIntHashMap(int nbShards) {
+		this(nbShards, 1024);
+	}
+
+	public ShardedLongIntHashMap(int nbShards, int expectedSizePerShard) {
+		super();
+		shards = new LongIntHashMap[Math.max(1, nbShards)];
+		for (int s = 0; s < shards.length; s++) {
+			shards[s] = new LongIntHashMap(expectedSizePerShard);
+		}
+	}
+
+	public int addTo(long key, int incr) {
+		return shards[shardOf(key, shards.length)].addTo(key, incr);
+	}
+
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	public void forEach(LongIntHashMap.EntryConsumer c) {
+		for (LongIntHashMap shard : shards) {
+			shard.forEach(c);
+		}
+	}
+
+	public int get(long key) {
+		return shards[shardOf(key, shards.length)].get(key);
+	}
+
+	public int getNbShards() {
+		return shards.length;
+	}
+
+	public LongIntHashMap getShard(int s) {
+		return shards[s];
+	}
+
+	public void setShard(int s, LongIntHashMap shard) {
+		shards[s] = shard;
+	}
+
+	public long size() {
+		long size = 0;
+		for (LongIntHashMap shard : shards) {
+			size += shard.size();
+		}
+		return size;
+	}
+}
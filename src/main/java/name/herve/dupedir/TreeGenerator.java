@@ -0,0 +1,435 @@
+package name.herve.dupedir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+// synthetic directory trees : a full tree of the given depth and fan-out, file names drawn from a Zipf distribution, and copies of some
+// subtrees planted under <root>/copies, each copied file being kept with the overlap probability
+public class TreeGenerator {
+	public interface FileHandler {
+		void file(String dir, String name, long size) throws IOException;
+	}
+
+	// a directory of the tree and its planted copy, with the number of file names they share by construction
+	public static class PlantedPair {
+		private String original;
+		private String copy;
+		private int nbCommonFiles;
+
+		public PlantedPair(String original, String copy, int nbCommonFiles) {
+			super();
+			this.original = original;
+			this.copy = copy;
+			this.nbCommonFiles = nbCommonFiles;
+		}
+
+		public String getCopy() {
+			return copy;
+		}
+
+		public int getNbCommonFiles() {
+			return nbCommonFiles;
+		}
+
+		public String getOriginal() {
+			return original;
+		}
+
+		@Override
+		public String toString() {
+			return original + " <-> " + copy + " [" + nbCommonFiles + "]";
+		}
+	}
+
+	private static final String COPIES = "copies";
+	private static DecimalFormat DECF = new DecimalFormat("###,###");
+
+	public static void main(String[] args) {
+		new TreeGenerator().start(args);
+	}
+
+	private static String pad(int i, int max) {
+		String s = Integer.toString(i);
+		int width = Integer.toString(Math.max(0, max - 1)).length();
+		StringBuilder sb = new StringBuilder();
+		for (int k = s.length(); k < width; k++) {
+			sb.append('0');
+		}
+		return sb.append(s).toString();
+	}
+
+	private Options options;
+
+	private String root = ListingFormat.SEPARATOR + "gen";
+	private int depth = 4;
+	private int fanOut = 8;
+	private int nbFilesPerDir = 20;
+	private int nbNames = 100000;
+	private double zipfExponent = 1.0;
+	private int nbPlanted = 10;
+	private int plantedDepth = -1;
+	private double plantedOverlap = 0.8;
+	private long maxFileSize = 1 << 20;
+	private long seed = 42;
+
+	private double[] zipfCdf;
+	private List<PlantedPair> planted;
+	private long nbDirs;
+	private long nbFiles;
+
+	public TreeGenerator() {
+		super();
+	}
+
+	private String child(String dir, String name) {
+		return ScanSnapshot.child(dir, name);
+	}
+
+	private void copy(long node, int level, String copyPath, int copyIdx, FileHandler h) throws IOException {
+		nbDirs++;
+		if (level < depth) {
+			for (int k = 0; k < fanOut; k++) {
+				copy((node * fanOut) + k + 1, level + 1, child(copyPath, "d" + pad(k, fanOut)), copyIdx, h);
+			}
+		}
+
+		Random rd = random(node, copyIdx + 1);
+		TreeMap<String, Long> files = new TreeMap<>();
+		int nbKept = 0;
+		int i = 0;
+		for (Map.Entry<String, Long> e : files(node).entrySet()) {
+			if (rd.nextDouble() < plantedOverlap) {
+				files.put(e.getKey(), e.getValue());
+				nbKept++;
+			} else {
+				// the dropped files are replaced by names found nowhere else
+				files.put("fx" + copyIdx + "-" + node + "-" + i + ".dat", e.getValue());
+			}
+			i++;
+		}
+		emit(copyPath, files, h);
+		planted.add(new PlantedPair(path(node), copyPath, nbKept));
+	}
+
+	// the files of a tree node only depend on the seed and the node, so that copies can regenerate them anywhere
+	private TreeMap<String, Long> files(long node) {
+		TreeMap<String, Long> files = new TreeMap<>();
+		if (node == 0) {
+			return files;
+		}
+		Random rd = random(node, 0);
+		for (int attempt = 0; (files.size() < nbFilesPerDir) && (attempt < (4 * nbFilesPerDir)); attempt++) {
+			String name = "f" + zipf(rd) + ".dat";
+			long size = (long) Math.exp(rd.nextDouble() * Math.log(maxFileSize));
+			files.putIfAbsent(name, size);
+		}
+		return files;
+	}
+
+	private void emit(String dir, TreeMap<String, Long> files, FileHandler h) throws IOException {
+		for (Map.Entry<String, Long> e : files.entrySet()) {
+			h.file(dir, e.getKey(), e.getValue());
+			nbFiles++;
+		}
+	}
+
+	// files are reported in the order of their paths, like a sorted listing : subdirectories ('c', 'd') before files ('f')
+	public void generate(FileHandler h) throws IOException {
+		planted = new ArrayList<>();
+		nbDirs = 0;
+		nbFiles = 0;
+		initZipf();
+
+		int level = plantedDepth < 0 ? Math.max(1, depth - 1) : Math.min(Math.max(1, plantedDepth), depth);
+		long first = 0;
+		long nbAtLevel = 1;
+		for (int l = 0; l < level; l++) {
+			first += nbAtLevel;
+			nbAtLevel *= fanOut;
+		}
+		Random rd = new Random(seed);
+		for (int c = 0; c < nbPlanted; c++) {
+			long node = first + (long) (rd.nextDouble() * nbAtLevel);
+			copy(node, level, child(child(root, COPIES), "c" + pad(c, nbPlanted)), c, h);
+		}
+		if (nbPlanted > 0) {
+			nbDirs++;
+		}
+		tree(0, 0, root, h);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getFanOut() {
+		return fanOut;
+	}
+
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	public long getNbDirs() {
+		return nbDirs;
+	}
+
+	public long getNbFiles() {
+		return nbFiles;
+	}
+
+	public int getNbFilesPerDir() {
+		return nbFilesPerDir;
+	}
+
+	public int getNbNames() {
+		return nbNames;
+	}
+
+	public int getNbPlanted() {
+		return nbPlanted;
+	}
+
+	public List<PlantedPair> getPlanted() {
+		return planted;
+	}
+
+	public int getPlantedDepth() {
+		return plantedDepth;
+	}
+
+	public double getPlantedOverlap() {
+		return plantedOverlap;
+	}
+
+	public String getRoot() {
+		return root;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public double getZipfExponent() {
+		return zipfExponent;
+	}
+
+	private void help(boolean isError, String message) {
+		if (message != null) {
+			Log.log(isError, message);
+		}
+		HelpFormatter formatter = new HelpFormatter();
+		StringWriter w = new StringWriter();
+		PrintWriter pw = new PrintWriter(w);
+		formatter.printHelp(pw, 150, getClass().getName(), "", options, 3, 3, "");
+		for (String line : w.toString().split("\\r?\\n")) {
+			Log.log(isError, line);
+		}
+	}
+
+	private void initOptions() {
+		options = new Options();
+		options.addOption("h", "help", false, "print this help");
+		options.addOption("o", "list", true, "where to store the generated files listing");
+		options.addOption("T", "text", false, "store files listing as plain text instead of the compact binary format");
+		options.addOption("z", "sizes", false, "store the file sizes in the binary files listing");
+		options.addOption("r", "create", true, "create the tree as empty sparse files under this directory, which becomes the root of the listing");
+		options.addOption("D", "depth", true, "depth of the tree [default 4]");
+		options.addOption("F", "fan-out", true, "number of subdirectories per directory [default 8]");
+		options.addOption("n", "files", true, "number of files per directory [default 20]");
+		options.addOption("N", "names", true, "number of distinct file names [default 100000]");
+		options.addOption("e", "zipf", true, "exponent of the Zipf distribution of the file names, 0 is uniform [default 1.0]");
+		options.addOption("p", "planted", true, "number of copied subtrees [default 10]");
+		options.addOption("P", "planted-depth", true, "depth of the copied subtrees roots [default depth - 1]");
+		options.addOption("v", "overlap", true, "probability for a file to be kept in a copy [default 0.8]");
+		options.addOption("S", "seed", true, "random seed [default 42]");
+	}
+
+	private void initZipf() {
+		zipfCdf = new double[Math.max(1, nbNames)];
+		double sum = 0;
+		for (int k = 0; k < zipfCdf.length; k++) {
+			sum += 1.0 / Math.pow(k + 1, zipfExponent);
+			zipfCdf[k] = sum;
+		}
+		for (int k = 0; k < zipfCdf.length; k++) {
+			zipfCdf[k] /= sum;
+		}
+	}
+
+	private String path(long node) {
+		StringBuilder sb = new StringBuilder();
+		while (node > 0) {
+			long parent = (node - 1) / fanOut;
+			sb.insert(0, "d" + pad((int) ((node - 1) % fanOut), fanOut));
+			sb.insert(0, ListingFormat.SEPARATOR);
+			node = parent;
+		}
+		return sb.length() == 0 ? root : child(root, sb.substring(1));
+	}
+
+	private Random random(long node, long stream) {
+		return new Random((seed * 0x9E3779B97F4A7C15L) ^ (node * 0xC2B2AE3D27D4EB4FL) ^ (stream * 0x165667B19E3779F9L));
+	}
+
+	public void setDepth(int depth) {
+		this.depth = Math.max(1, depth);
+	}
+
+	public void setFanOut(int fanOut) {
+		this.fanOut = Math.max(1, fanOut);
+	}
+
+	public void setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = Math.max(1, maxFileSize);
+	}
+
+	public void setNbFilesPerDir(int nbFilesPerDir) {
+		this.nbFilesPerDir = nbFilesPerDir;
+	}
+
+	public void setNbNames(int nbNames) {
+		this.nbNames = nbNames;
+	}
+
+	public void setNbPlanted(int nbPlanted) {
+		this.nbPlanted = nbPlanted;
+	}
+
+	public void setPlantedDepth(int plantedDepth) {
+		this.plantedDepth = plantedDepth;
+	}
+
+	public void setPlantedOverlap(double plantedOverlap) {
+		this.plantedOverlap = plantedOverlap;
+	}
+
+	public void setRoot(String root) {
+		this.root = root;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setZipfExponent(double zipfExponent) {
+		this.zipfExponent = zipfExponent;
+	}
+
+	public void start(String[] args) {
+		initOptions();
+
+		CommandLineParser parser = new DefaultParser();
+		CommandLine command = null;
+		try {
+			command = parser.parse(options, args);
+		} catch (ParseException e) {
+			help(true, e.getMessage());
+			return;
+		}
+
+		if (command.hasOption('h') || (!command.hasOption('o') && !command.hasOption('r'))) {
+			help(false, getClass().getSimpleName());
+			return;
+		}
+
+		try {
+			if (command.hasOption('D')) {
+				setDepth(Integer.parseInt(command.getOptionValue('D')));
+			}
+			if (command.hasOption('F')) {
+				setFanOut(Integer.parseInt(command.getOptionValue('F')));
+			}
+			if (command.hasOption('n')) {
+				setNbFilesPerDir(Integer.parseInt(command.getOptionValue('n')));
+			}
+			if (command.hasOption('N')) {
+				setNbNames(Integer.parseInt(command.getOptionValue('N')));
+			}
+			if (command.hasOption('e')) {
+				setZipfExponent(Double.parseDouble(command.getOptionValue('e')));
+			}
+			if (command.hasOption('p')) {
+				setNbPlanted(Integer.parseInt(command.getOptionValue('p')));
+			}
+			if (command.hasOption('P')) {
+				setPlantedDepth(Integer.parseInt(command.getOptionValue('P')));
+			}
+			if (command.hasOption('v')) {
+				setPlantedOverlap(Double.parseDouble(command.getOptionValue('v')));
+			}
+			if (command.hasOption('S')) {
+				setSeed(Long.parseLong(command.getOptionValue('S')));
+			}
+		} catch (NumberFormatException e) {
+			help(true, "invalid number : " + e.getMessage());
+			return;
+		}
+
+		Path tree = command.hasOption('r') ? Paths.get(command.getOptionValue('r')).toAbsolutePath() : null;
+		if (tree != null) {
+			setRoot(tree.toString());
+		}
+		Path output = command.hasOption('o') ? Paths.get(command.getOptionValue('o')) : null;
+
+		Log.log("Generating a tree of depth " + depth + " and fan-out " + fanOut + " under " + root);
+		try (ListingWriter w = output != null ? new ListingWriter(output, !command.hasOption('T'), command.hasOption('z')) : null) {
+			generate((dir, name, size) -> {
+				if (w != null) {
+					w.write(child(dir, name), size);
+				}
+				if (tree != null) {
+					Path d = Paths.get(dir);
+					Files.createDirectories(d);
+					// sparse, only the size is written
+					try (RandomAccessFile f = new RandomAccessFile(d.resolve(name).toFile(), "rw")) {
+						f.setLength(size);
+					}
+				}
+			});
+		} catch (IOException e) {
+			Log.log(true, e);
+			return;
+		}
+
+		Log.log(" - " + DECF.format(nbDirs) + " directories and " + DECF.format(nbFiles) + " files");
+		Log.log(" - " + DECF.format(planted.size()) + " planted duplicate directories");
+		for (PlantedPair p : planted) {
+			Log.log("    " + p);
+		}
+	}
+
+	private void tree(long node, int level, String path, FileHandler h) throws IOException {
+		nbDirs++;
+		if (level < depth) {
+			for (int k = 0; k < fanOut; k++) {
+				tree((node * fanOut) + k + 1, level + 1, child(path, "d" + pad(k, fanOut)), h);
+			}
+		}
+		emit(path, files(node), h);
+	}
+
+	private int zipf(Random rd) {
+		int idx = Arrays.binarySearch(zipfCdf, rd.nextDouble());
+		return Math.min(idx < 0 ? -idx - 1 : idx, zipfCdf.length - 1);
+	}
+}
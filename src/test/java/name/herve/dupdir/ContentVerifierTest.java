@@ -0,0 +1,129 @@
+package name.herve.dupdir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import name.herve.dupedir.ContentVerifier;
+import name.herve.dupedir.HashCache;
+
+public class ContentVerifierTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path create(String name, byte[] content) throws IOException {
+		Path p = folder.getRoot().toPath().resolve(name);
+		Files.write(p, content);
+		// older than the racy margin, so that the hashes are cached
+		Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis() - 3600000));
+		return p;
+	}
+
+	@Test
+	public void testCache() throws IOException {
+		byte[] big = new byte[5 * ContentVerifier.PARTIAL_BLOCK_SIZE];
+		Arrays.fill(big, (byte) 'a');
+		List<Path> files1 = List.of(create("a1", big), create("b1", "b".getBytes()));
+		List<Path> files2 = List.of(create("a2", big), create("b2", "b".getBytes()));
+		Path cacheFile = folder.getRoot().toPath().resolve("hashes.cache");
+
+		long read = -1;
+		for (int run = 0; run < 3; run++) {
+			try (HashCache cache = new HashCache(cacheFile)) {
+				ContentVerifier verifier = new ContentVerifier(2);
+				verifier.setCache(cache);
+				Assert.assertArrayEquals(new long[] { big.length, 1 }, verifier.verify(files1, files2));
+				if (run == 0) {
+					read = verifier.getNbBytesRead();
+					Assert.assertTrue(read > 0);
+				} else {
+					// nothing changed, nothing read again
+					Assert.assertEquals(0, verifier.getNbBytesRead());
+					Assert.assertEquals(4, cache.getNbHits());
+				}
+				Assert.assertEquals(4, cache.size());
+			}
+		}
+
+		// a modified file is hashed again, and the record of the deleted one is compacted away
+		Files.write(files1.get(1), "c".getBytes());
+		Files.setLastModifiedTime(files1.get(1), FileTime.fromMillis(System.currentTimeMillis() - 60000));
+		Files.delete(files2.get(0));
+		try (HashCache cache = new HashCache(cacheFile)) {
+			ContentVerifier verifier = new ContentVerifier(1);
+			verifier.setCache(cache);
+			Assert.assertArrayEquals(new long[] { -1, -1 }, verifier.verify(files1, files2));
+			Assert.assertEquals(1, verifier.getNbFilesPartiallyHashed());
+			Assert.assertEquals(1, cache.compact());
+			Assert.assertEquals(3, cache.size());
+			Assert.assertEquals(3, cache.getNbRecords());
+		}
+
+		// a truncated cache keeps the records before the damage
+		byte[] content = Files.readAllBytes(cacheFile);
+		Files.write(cacheFile, Arrays.copyOf(content, content.length - 3));
+		try (HashCache cache = new HashCache(cacheFile)) {
+			Assert.assertEquals(2, cache.size());
+		}
+		try (HashCache cache = new HashCache(cacheFile)) {
+			Assert.assertEquals(2, cache.size());
+		}
+
+		// files modified in the same tick as the hashing may change again unnoticed, they are hashed again on the next run
+		Path fresh1 = folder.getRoot().toPath().resolve("fresh1");
+		Path fresh2 = folder.getRoot().toPath().resolve("fresh2");
+		Files.write(fresh1, big);
+		Files.write(fresh2, big);
+		for (int run = 0; run < 2; run++) {
+			try (HashCache cache = new HashCache(cacheFile)) {
+				ContentVerifier verifier = new ContentVerifier(1);
+				verifier.setCache(cache);
+				Assert.assertArrayEquals(new long[] { big.length }, verifier.verify(List.of(fresh1), List.of(fresh2)));
+				Assert.assertTrue(verifier.getNbBytesRead() > 0);
+				Assert.assertEquals(0, cache.getNbHits());
+				Assert.assertEquals(2, cache.size());
+			}
+		}
+	}
+
+	@Test
+	public void testStages() throws IOException {
+		byte[] big = new byte[5 * ContentVerifier.PARTIAL_BLOCK_SIZE];
+		Arrays.fill(big, (byte) 'a');
+		byte[] middle = big.clone();
+		middle[big.length / 2] = 'b';
+		byte[] head = big.clone();
+		head[0] = 'b';
+
+		Path ref = create("ref", big);
+		Path same = create("same", big);
+		Path differentMiddle = create("middle", middle);
+		Path differentHead = create("head", head);
+		Path shorter = create("shorter", Arrays.copyOf(big, 10));
+		Path empty1 = create("empty1", new byte[0]);
+		Path empty2 = create("empty2", new byte[0]);
+		Path missing = folder.getRoot().toPath().resolve("missing");
+
+		for (int nbThreads : new int[] { 1, 4 }) {
+			ContentVerifier verifier = new ContentVerifier(nbThreads);
+			List<Path> files1 = List.of(ref, ref, ref, ref, empty1, ref);
+			List<Path> files2 = List.of(same, differentMiddle, differentHead, shorter, empty2, missing);
+			long[] sizes = verifier.verify(files1, files2);
+			Assert.assertArrayEquals(new long[] { big.length, -1, -1, -1, 0, -1 }, sizes);
+
+			// the shorter and missing files are ruled out by their sizes, the one with another head by the partial hash
+			Assert.assertEquals(8, verifier.getNbFilesSized());
+			Assert.assertEquals(6, verifier.getNbFilesPartiallyHashed());
+			Assert.assertEquals(3, verifier.getNbFilesFullyHashed());
+			Assert.assertEquals(1, verifier.getNbErrors());
+		}
+	}
+}
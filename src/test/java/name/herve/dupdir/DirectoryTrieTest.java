@@ -0,0 +1,72 @@
+package name.herve.dupdir;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import name.herve.dupedir.DirectoryTrie;
+
+public class DirectoryTrieTest {
+	private static final String S = File.separator;
+
+	@Test
+	public void testPaths() {
+		DirectoryTrie trie = new DirectoryTrie();
+		String root = S + "data";
+		String[] paths = { root + S + "a" + S + "b", root + S + "a" + S + "b" + S + "c", root + S + "a" + S + "bc", root + S + "a", root + S + "x" + S + "b", S };
+		int[] ids = new int[paths.length];
+		for (int i = 0; i < paths.length; i++) {
+			ids[i] = trie.getOrCreate(paths[i]);
+		}
+		for (int i = 0; i < paths.length; i++) {
+			Assert.assertEquals(ids[i], trie.getOrCreate(paths[i]));
+			Assert.assertEquals(ids[i], trie.find(paths[i]));
+			Assert.assertEquals(paths[i], trie.getPath(ids[i]));
+		}
+		Assert.assertEquals(ids[3], trie.getParent(ids[0]));
+		Assert.assertEquals(ids[0], trie.getParent(ids[1]));
+		Assert.assertEquals(ids[3], trie.getParent(ids[2]));
+		Assert.assertEquals(trie.getDepth(ids[0]) + 1, trie.getDepth(ids[1]));
+		Assert.assertEquals(-1, trie.getParent(ids[5]));
+		Assert.assertEquals(-1, trie.find(root + S + "y"));
+		// "/", "data", "a", "b", "c", "bc", "x"
+		Assert.assertEquals(7, trie.getNbSegments());
+		Assert.assertEquals(8, trie.size());
+	}
+
+	@Test
+	public void testCompare() {
+		DirectoryTrie trie = new DirectoryTrie();
+		String root = S + "data";
+		// in path order once sorted, whatever the order they are created in
+		String[] sorted = { root, root + S + "a", root + S + "a" + S + "z", root + S + "ab", root + S + "b", root + S + "b" + S + "a" };
+		int[] ids = new int[sorted.length];
+		for (int i = sorted.length - 1; i >= 0; i--) {
+			ids[i] = trie.getOrCreate(sorted[i]);
+		}
+		for (int i = 0; i < ids.length; i++) {
+			for (int j = 0; j < ids.length; j++) {
+				Assert.assertEquals(Integer.signum(Integer.compare(i, j)), Integer.signum(trie.compare(ids[i], ids[j])));
+			}
+		}
+	}
+
+	@Test
+	public void testRootPrefix() {
+		DirectoryTrie trie = new DirectoryTrie();
+		int foo = trie.getOrCreate("foo");
+		int foobar = trie.getOrCreate("foobar");
+		Assert.assertNotEquals(foo, foobar);
+		Assert.assertEquals(-1, trie.getParent(foobar));
+		Assert.assertEquals("foobar", trie.getPath(foobar));
+		Assert.assertEquals(foo, trie.getOrCreate("foo"));
+		Assert.assertEquals(2, trie.size());
+
+		DirectoryTrie data = new DirectoryTrie();
+		int d = data.getOrCreate(S + "data");
+		int d2 = data.getOrCreate(S + "data2");
+		Assert.assertEquals(data.getParent(d), data.getParent(d2));
+		Assert.assertEquals(S + "data2", data.getPath(d2));
+	}
+}
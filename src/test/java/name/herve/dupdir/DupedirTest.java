@@ -8,19 +8,52 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 import org.junit.Assert;
 import org.junit.FixMethodOrder;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runners.MethodSorters;
 
+import name.herve.dupedir.DirectoryScanner;
+import name.herve.dupedir.DirectoryWatcher;
 import name.herve.dupedir.DupedirFinder;
 import name.herve.dupedir.Log;
+import name.herve.dupedir.ScanSnapshot;
+import name.herve.dupedir.TreeGenerator;
+import name.herve.dupedir.DupedirFinder.Dir;
 import name.herve.dupedir.DupedirFinder.DuplicateDir;
+import name.herve.dupedir.DupedirFinder.Ranking;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class DupedirTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path createTree(String file) throws IOException, URISyntaxException {
+		URL resource = this.getClass().getClassLoader().getResource(file);
+		Path root = folder.getRoot().toPath();
+		for (String line : Files.readAllLines(Paths.get(resource.toURI()))) {
+			line = line.strip();
+			if (!line.isBlank() && !line.startsWith("#")) {
+				Path path = root.resolve(line.substring(1));
+				Files.createDirectories(path.getParent());
+				Files.createFile(path);
+			}
+		}
+		return root;
+	}
 
 	private List<DuplicateDir> findDuplicates(DupedirFinder ddf, boolean aggregateHierarchy) {
 		List<DuplicateDir> duplicates = ddf.findDuplicates(aggregateHierarchy);
@@ -32,6 +65,30 @@ public class DupedirTest {
 		return duplicates;
 	}
 
+	private DupedirFinder randomIndex(long seed, int nbThreads) {
+		Random rd = new Random(seed);
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setMinNbCommonFiles(2);
+		ddf.setNbThreads(nbThreads);
+		for (int i = 0; i < 20000; i++) {
+			String dir = "/root/d" + rd.nextInt(10) + "/d" + rd.nextInt(10) + "/d" + rd.nextInt(5);
+			ddf.addFileToIndex(dir, "f" + rd.nextInt(3000));
+		}
+		ddf.hierarchyStats();
+		return ddf;
+	}
+
+	private Map<String, String> summary(List<DuplicateDir> duplicates) {
+		Map<String, String> res = new TreeMap<>();
+		for (DuplicateDir dd : duplicates) {
+			String p1 = dd.getDir1().getPath().toString();
+			String p2 = dd.getDir2().getPath().toString();
+			res.put(p1.compareTo(p2) < 0 ? p1 + " " + p2 : p2 + " " + p1, dd.getNbCommonFiles() + " " + dd.getNbCommonFilesHierarchy() + " " + dd.getScore());
+		}
+		return res;
+	}
+
 	private DuplicateDir getDuplicate(List<DuplicateDir> candidates, String dir1, String dir2) {
 		for (DuplicateDir dd : candidates) {
 			if (dd.getDir1().getPath().toString().equals(dir1) && dd.getDir2().getPath().toString().equals(dir2)) {
@@ -181,4 +238,383 @@ public class DupedirTest {
 		Assert.assertNotNull(ddh);
 		Assert.assertEquals(2, ddh.getNbCommonFilesHierarchy());
 	}
+
+	@Test
+	public void test20() throws IOException, URISyntaxException {
+		Path root = createTree("test11.txt");
+
+		DupedirFinder serial = new DupedirFinder();
+		serial.initScan();
+		serial.setMinNbCommonFiles(1);
+		serial.scan(root, p -> serial.addFileToIndex(p));
+		serial.hierarchyStats();
+
+		DupedirFinder parallel = new DupedirFinder();
+		parallel.initScan();
+		parallel.setMinNbCommonFiles(1);
+		parallel.setNbThreads(4);
+		parallel.scan(root, p -> parallel.addFileToIndex(p));
+		parallel.hierarchyStats();
+
+		List<DuplicateDir> expected = findDuplicates(serial, true);
+		List<DuplicateDir> duplicates = findDuplicates(parallel, true);
+		Assert.assertEquals(expected.size(), duplicates.size());
+		for (DuplicateDir e : expected) {
+			DuplicateDir dd = getDuplicate(duplicates, e.getDir1().getPath().toString(), e.getDir2().getPath().toString());
+			Assert.assertNotNull(dd);
+			Assert.assertEquals(e.getNbCommonFiles(), dd.getNbCommonFiles());
+			Assert.assertEquals(e.getNbCommonFilesHierarchy(), dd.getNbCommonFilesHierarchy());
+		}
+	}
+
+	@Test
+	public void test21() {
+		for (boolean aggregateHierarchy : new boolean[] { false, true }) {
+			List<DuplicateDir> expected = randomIndex(21, 1).findDuplicates(aggregateHierarchy);
+			List<DuplicateDir> duplicates = randomIndex(21, 4).findDuplicates(aggregateHierarchy);
+			Assert.assertFalse(expected.isEmpty());
+			Assert.assertEquals(summary(expected), summary(duplicates));
+		}
+	}
+
+	@Test
+	public void test22() {
+		for (boolean aggregateHierarchy : new boolean[] { false, true }) {
+			List<DuplicateDir> all = randomIndex(22, 1).findDuplicates(aggregateHierarchy);
+			Ranking ranking = randomIndex(22, 4).rankDuplicates(aggregateHierarchy, 50);
+			List<DuplicateDir> top = ranking.getTop();
+			Assert.assertEquals(50, top.size());
+			Assert.assertEquals(all.size(), ranking.getNbDuplicates());
+			for (int i = 0; i < top.size(); i++) {
+				Assert.assertEquals(all.get(i).getDir1().getPath(), top.get(i).getDir1().getPath());
+				Assert.assertEquals(all.get(i).getDir2().getPath(), top.get(i).getDir2().getPath());
+				Assert.assertEquals(all.get(i).getScore(), top.get(i).getScore(), 0);
+			}
+
+			int nbRest = 0;
+			for (Iterator<DuplicateDir> it = ranking.rest(); it.hasNext();) {
+				DuplicateDir dd = it.next();
+				Assert.assertTrue(DupedirFinder.RANKING.compare(top.get(top.size() - 1), dd) < 0);
+				nbRest++;
+			}
+			Assert.assertEquals(all.size() - top.size(), nbRest);
+		}
+	}
+
+	@Test
+	public void test23() {
+		// deep enough to overflow a recursive walk, and wide enough to split a level across threads
+		StringBuilder deep = new StringBuilder("/root");
+		for (int i = 0; i < 20000; i++) {
+			deep.append("/d");
+		}
+		for (int nbThreads : new int[] { 1, 4 }) {
+			DupedirFinder ddf = new DupedirFinder();
+			ddf.initScan();
+			ddf.setNbThreads(nbThreads);
+			ddf.addFileToIndex(deep.toString(), "f");
+			for (int i = 0; i < 10000; i++) {
+				ddf.addFileToIndex("/root/wide/w" + i, "f" + i);
+				ddf.addFileToIndex("/root/wide/w" + i + "/x", "f" + i);
+			}
+			ddf.hierarchyStats();
+			Assert.assertEquals(20001, ddf.getDir("/root").getNbFilesHierarchy());
+			Assert.assertEquals(20000, ddf.getDir("/root/wide").getNbFilesHierarchy());
+			Assert.assertEquals(2, ddf.getDir("/root/wide/w42").getNbFilesHierarchy());
+			Assert.assertEquals(1, ddf.getDir(deep.toString()).getNbFilesHierarchy());
+		}
+	}
+
+	@Test
+	public void test24() throws IOException {
+		Path root = folder.newFolder("verify").toPath();
+		for (String dir : new String[] { "a", "b" }) {
+			Files.createDirectories(root.resolve(dir));
+			Files.write(root.resolve(dir).resolve("x.txt"), "same content".getBytes());
+			Files.write(root.resolve(dir).resolve("y.txt"), "other".getBytes());
+			Files.write(root.resolve(dir).resolve("z.txt"), dir.getBytes());
+		}
+		Files.write(root.resolve("b").resolve("y.txt"), "OTHER".getBytes());
+
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setNbThreads(2);
+		ddf.scan(root, p -> ddf.addFileToIndex(p));
+		ddf.hierarchyStats();
+		List<DuplicateDir> duplicates = ddf.findDuplicates(false);
+		Assert.assertEquals(1, duplicates.size());
+		DuplicateDir dd = duplicates.get(0);
+		Assert.assertFalse(dd.isVerified());
+		ddf.verifyDuplicates(duplicates);
+		Assert.assertTrue(dd.isVerified());
+		Assert.assertEquals(3, dd.getNbCommonFiles());
+		Assert.assertEquals(1, dd.getNbVerifiedFiles());
+		Assert.assertEquals("same content".length(), dd.getNbVerifiedBytes());
+
+		// over hierarchy, a and b also share the files of their subdirectories, which are not verified
+		for (String dir : new String[] { "a", "b" }) {
+			Files.createDirectories(root.resolve(dir).resolve("s"));
+			for (int f = 0; f < 3; f++) {
+				Files.write(root.resolve(dir).resolve("s").resolve("s" + f + ".txt"), "sub".getBytes());
+			}
+		}
+		DupedirFinder hierarchy = new DupedirFinder();
+		hierarchy.initScan();
+		hierarchy.scan(root, p -> hierarchy.addFileToIndex(p));
+		hierarchy.hierarchyStats();
+		duplicates = hierarchy.findDuplicates(true);
+		hierarchy.verifyDuplicates(duplicates);
+		int nbUnverified = 0;
+		for (DuplicateDir h : duplicates) {
+			if (h.getNbCommonFilesHierarchy() > h.getNbCommonFiles()) {
+				Assert.assertFalse(h.isVerified());
+				nbUnverified++;
+			} else {
+				Assert.assertTrue(h.isVerified());
+			}
+		}
+		Assert.assertTrue(nbUnverified > 0);
+	}
+
+	// directories modified long enough ago for their mtime to be trusted by the incremental scans
+	private void age(Path root, int seconds) throws IOException {
+		FileTime old = FileTime.fromMillis(System.currentTimeMillis() - (seconds * 1000L));
+		try (Stream<Path> dirs = Files.walk(root)) {
+			for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+				Files.setLastModifiedTime(dir, old);
+			}
+		}
+	}
+
+	private Map<String, String> fullScan(Path root) throws IOException {
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setMinNbCommonFiles(1);
+		ddf.setMatchSizes(true);
+		ddf.scan(root, (p, size) -> ddf.addFileToIndex(p, size));
+		ddf.hierarchyStats();
+		return summary(ddf.findDuplicates(true));
+	}
+
+	private Map<String, String> incrementalScan(Path root, Path snapshotFile) throws IOException {
+		ScanSnapshot snapshot = Files.exists(snapshotFile) ? ScanSnapshot.read(snapshotFile) : new ScanSnapshot();
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setMinNbCommonFiles(1);
+		ddf.setMatchSizes(true);
+		ddf.setNbThreads(2);
+		ddf.scanIncremental(root, snapshot);
+		ddf.hierarchyStats();
+		snapshot.write(snapshotFile);
+		return summary(ddf.findDuplicates(true));
+	}
+
+	@Test
+	public void test25() throws IOException {
+		Path root = folder.newFolder("incremental").toPath();
+		for (String dir : new String[] { "a/x", "a/y", "b/x", "b/y", "c" }) {
+			Files.createDirectories(root.resolve(dir));
+			for (int i = 0; i < 3; i++) {
+				Files.write(root.resolve(dir).resolve("f" + i), dir.substring(dir.length() - 1).getBytes());
+			}
+		}
+		age(root, 120);
+		Path snapshotFile = folder.getRoot().toPath().resolve("snapshot");
+		Assert.assertEquals(fullScan(root), incrementalScan(root, snapshotFile));
+
+		ScanSnapshot snapshot = ScanSnapshot.read(snapshotFile);
+		DirectoryScanner scanner = new DirectoryScanner(1);
+		List<String> changes = new ArrayList<>();
+		DirectoryScanner.ChangeHandler handler = new DirectoryScanner.ChangeHandler() {
+			@Override
+			public void added(String dir, String name, long size) {
+				changes.add("+" + root.relativize(Paths.get(dir, name)));
+			}
+
+			@Override
+			public void removed(String dir, String name, long size) {
+				changes.add("-" + root.relativize(Paths.get(dir, name)));
+			}
+		};
+		scanner.refresh(root, snapshot, handler);
+		Assert.assertEquals(0, scanner.getNbRelistedDirs());
+		Assert.assertTrue(changes.isEmpty());
+
+		// directory mtimes change when entries are added, removed or renamed
+		Files.write(root.resolve("a/x/f3"), "x".getBytes());
+		Files.delete(root.resolve("b/y/f0"));
+		Files.delete(root.resolve("b/y/f1"));
+		Files.delete(root.resolve("b/y/f2"));
+		Files.delete(root.resolve("b/y"));
+		Files.createDirectories(root.resolve("c/z"));
+		Files.write(root.resolve("c/z/f0"), "y".getBytes());
+		age(root, 60);
+		Assert.assertEquals(fullScan(root), incrementalScan(root, snapshotFile));
+
+		scanner = new DirectoryScanner(1);
+		changes.clear();
+		scanner.refresh(root, ScanSnapshot.read(snapshotFile), handler);
+		Assert.assertEquals(0, scanner.getNbRelistedDirs());
+		Assert.assertEquals(8, scanner.getNbDirs());
+		Assert.assertTrue(changes.isEmpty());
+
+		Files.delete(root.resolve("c/z/f0"));
+		scanner = new DirectoryScanner(1);
+		scanner.refresh(root, ScanSnapshot.read(snapshotFile), handler);
+		Assert.assertEquals(1, scanner.getNbRelistedDirs());
+		Assert.assertEquals(List.of("-" + Paths.get("c", "z", "f0")), changes);
+
+		// c/z was modified in the same tick as the scan, so it is listed again until its mtime is old enough
+		Assert.assertEquals(fullScan(root), incrementalScan(root, snapshotFile));
+		scanner = new DirectoryScanner(1);
+		changes.clear();
+		scanner.refresh(root, ScanSnapshot.read(snapshotFile), handler);
+		Assert.assertEquals(1, scanner.getNbRelistedDirs());
+		Assert.assertTrue(changes.isEmpty());
+	}
+
+	@Test
+	public void test26() {
+		for (boolean aggregateHierarchy : new boolean[] { false, true }) {
+			Random rd = new Random(26);
+			List<String[]> files = new ArrayList<>();
+			DupedirFinder ddf = new DupedirFinder();
+			ddf.initScan();
+			ddf.setMinNbCommonFiles(2);
+			ddf.setMaxNbDirForFile(6);
+			for (int i = 0; i < 3000; i++) {
+				String[] f = { "/root/d" + rd.nextInt(5) + "/d" + rd.nextInt(5), "f" + rd.nextInt(400) };
+				files.add(f);
+				ddf.addFileToIndex(f[0], f[1]);
+			}
+			ddf.hierarchyStats();
+			DupedirFinder.LiveDuplicates live = ddf.liveDuplicates(aggregateHierarchy);
+
+			// names moving in and out of the counted range, and new directories
+			for (int i = 0; i < 2000; i++) {
+				if (rd.nextBoolean()) {
+					String[] f = files.remove(rd.nextInt(files.size()));
+					Assert.assertTrue(ddf.removeFileFromIndex(f[0], f[1], -1));
+				} else {
+					String[] f = { "/root/d" + rd.nextInt(6) + "/d" + rd.nextInt(6) + (rd.nextInt(10) == 0 ? "/n" + i : ""), "f" + rd.nextInt(400) };
+					files.add(f);
+					ddf.addFileToIndex(f[0], f[1]);
+				}
+			}
+
+			DupedirFinder expected = new DupedirFinder();
+			expected.initScan();
+			expected.setMinNbCommonFiles(2);
+			expected.setMaxNbDirForFile(6);
+			for (String[] f : files) {
+				expected.addFileToIndex(f[0], f[1]);
+			}
+			expected.hierarchyStats();
+			List<DuplicateDir> duplicates = live.rank(Integer.MAX_VALUE).getTop();
+			Assert.assertFalse(duplicates.isEmpty());
+			Assert.assertEquals(summary(expected.findDuplicates(aggregateHierarchy)), summary(duplicates));
+			for (DuplicateDir dd : duplicates) {
+				Assert.assertEquals(expected.getDir(dd.getDir1().getPath().toString()).getNbFilesHierarchy(), dd.getDir1().getNbFilesHierarchy());
+			}
+		}
+	}
+
+	@Test
+	public void test27() throws IOException, InterruptedException {
+		Path root = folder.newFolder("watched").toPath();
+		try (DirectoryWatcher watcher = new DirectoryWatcher(200, 2000)) {
+			watcher.register(root);
+			for (int i = 0; i < 20; i++) {
+				Files.write(root.resolve("f" + i), "x".getBytes());
+			}
+			Assert.assertEquals(Set.of(root), watcher.take());
+		}
+	}
+
+	@Test
+	public void test28() throws IOException {
+		TreeGenerator g = new TreeGenerator();
+		g.setDepth(3);
+		g.setFanOut(6);
+		g.setNbFilesPerDir(20);
+		g.setNbNames(2000);
+		g.setNbPlanted(3);
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		g.generate((dir, name, size) -> ddf.addFileToIndex(dir, name));
+		ddf.hierarchyStats();
+
+		for (long budget : new long[] { -1, 20000 }) {
+			ddf.setPairBudget(budget);
+			for (boolean aggregateHierarchy : new boolean[] { false, true }) {
+				List<DuplicateDir> all = ddf.findDuplicates(aggregateHierarchy);
+				for (boolean subtree : new boolean[] { false, true }) {
+					Path queried = Paths.get(g.getPlanted().get(0).getOriginal());
+					if (subtree) {
+						queried = queried.getParent();
+					}
+					List<DuplicateDir> expected = new ArrayList<>();
+					for (DuplicateDir dd : all) {
+						Path p1 = dd.getDir1().getPath();
+						Path p2 = dd.getDir2().getPath();
+						if (subtree ? p1.startsWith(queried) || p2.startsWith(queried) : p1.equals(queried) || p2.equals(queried)) {
+							expected.add(dd);
+						}
+					}
+					List<DuplicateDir> duplicates = ddf.findDuplicatesOf(ddf.getDir(queried.toString()), subtree, aggregateHierarchy, Integer.MAX_VALUE);
+					Assert.assertFalse(duplicates.isEmpty());
+					Assert.assertEquals(summary(expected), summary(duplicates));
+					Assert.assertEquals(summary(duplicates.subList(0, 1)), summary(ddf.findDuplicatesOf(ddf.getDir(queried.toString()), subtree, aggregateHierarchy, 1)));
+				}
+			}
+		}
+		Assert.assertEquals(50, ddf.getMaxNbDirForFile());
+
+		ddf.setApproximate(true);
+		Assert.assertThrows(IllegalStateException.class, () -> ddf.findDuplicatesOf(ddf.getDir(g.getPlanted().get(0).getOriginal()), false, false, 10));
+
+		// without the child lists, the subtree would silently stop at the queried directory
+		DupedirFinder unstated = new DupedirFinder();
+		unstated.initScan();
+		g.generate((dir, name, size) -> unstated.addFileToIndex(dir, name));
+		Dir original = unstated.getDir(g.getPlanted().get(0).getOriginal());
+		Assert.assertFalse(unstated.findDuplicatesOf(original, false, false, 10).isEmpty());
+		Assert.assertThrows(IllegalStateException.class, () -> unstated.findDuplicatesOf(original, true, false, 10));
+		Assert.assertThrows(IllegalStateException.class, () -> unstated.findDuplicatesOf(original, false, true, 10));
+	}
+
+	@Test
+	public void test29() {
+		// identical directories all tie, their order should not depend on the ids given in insertion order
+		List<List<String>> orders = new ArrayList<>();
+		for (long seed = 0; seed < 3; seed++) {
+			List<Integer> dirs = new ArrayList<>();
+			for (int d = 0; d < 10; d++) {
+				dirs.add(d);
+			}
+			Collections.shuffle(dirs, new Random(seed));
+			DupedirFinder ddf = new DupedirFinder();
+			ddf.initScan();
+			for (int d : dirs) {
+				for (int f = 0; f < 5; f++) {
+					ddf.addFileToIndex("/r/d" + d, "f" + f);
+				}
+			}
+			ddf.hierarchyStats();
+			for (int top : new int[] { 3, Integer.MAX_VALUE }) {
+				List<String> order = new ArrayList<>();
+				for (DuplicateDir dd : ddf.findDuplicates(false, top)) {
+					String p1 = dd.getDir1().getPath().toString();
+					String p2 = dd.getDir2().getPath().toString();
+					order.add(p1.compareTo(p2) < 0 ? p1 + " " + p2 : p2 + " " + p1);
+				}
+				orders.add(order);
+			}
+		}
+		Assert.assertEquals(45, orders.get(1).size());
+		Assert.assertEquals(orders.get(1).subList(0, 3), orders.get(0));
+		for (int i = 2; i < orders.size(); i++) {
+			Assert.assertEquals(orders.get(i % 2), orders.get(i));
+		}
+	}
 }
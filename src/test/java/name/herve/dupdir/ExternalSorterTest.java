@@ -0,0 +1,51 @@
+package name.herve.dupdir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import name.herve.dupedir.ExternalSorter;
+
+public class ExternalSorterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private void check(int nb, long memoryBudget, boolean expectRuns) throws IOException {
+		Random rd = new Random(nb);
+		TreeSet<String> expected = new TreeSet<>();
+		List<String> sorted = new ArrayList<>();
+		try (ExternalSorter sorter = new ExternalSorter(memoryBudget, folder.getRoot().toPath())) {
+			for (int i = 0; i < nb; i++) {
+				String s = "/root/dir" + rd.nextInt(nb / 10) + "/file" + rd.nextInt(nb);
+				expected.add(s);
+				sorter.add(s);
+			}
+			Assert.assertEquals(expectRuns, sorter.getNbRuns() > 0);
+			sorter.sort(s -> sorted.add(s));
+		}
+		Assert.assertEquals(new ArrayList<>(expected), sorted);
+		Assert.assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testInMemory() throws IOException {
+		check(1000, 1L << 20, false);
+	}
+
+	@Test
+	public void testMultiPassMerge() throws IOException {
+		check(50000, 1000, true);
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+		check(10000, 50000, true);
+	}
+}
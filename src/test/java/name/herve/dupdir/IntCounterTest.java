@@ -0,0 +1,93 @@
+package name.herve.dupdir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Assert;
+import org.junit.Test;
+
+import name.herve.dupedir.IntCounter;
+
+public class IntCounterTest {
+	@Test
+	public void testAgainstHashMap() {
+		Random rd = new Random(42);
+		IntCounter c = new IntCounter(8);
+		Map<Integer, Long> expected = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			int k = rd.nextInt(5000) - 100;
+			long nb = rd.nextInt(5) - 1;
+			c.add(k, nb);
+			expected.merge(k, nb, Long::sum);
+		}
+		c.add(Integer.MIN_VALUE, 7);
+		expected.put(Integer.MIN_VALUE, 7L);
+
+		Assert.assertEquals(expected.size(), c.size());
+		long sum = 0;
+		for (Map.Entry<Integer, Long> e : expected.entrySet()) {
+			Assert.assertEquals(e.getValue().longValue(), c.getCount(e.getKey()));
+			sum += e.getValue();
+		}
+		Assert.assertEquals(sum, c.getSum());
+		Assert.assertEquals(0, c.getCount(6000));
+		Assert.assertEquals(expected, c.toCounter().keySet().stream().collect(HashMap::new, (m, k) -> m.put(k, c.getCount(k)), HashMap::putAll));
+	}
+
+	@Test
+	public void testConcurrentAdds() throws InterruptedException {
+		IntCounter c = new IntCounter();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 100000; i++) {
+					c.add(i % 1000);
+				}
+			}));
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(1000, c.size());
+		for (int k = 0; k < 1000; k++) {
+			Assert.assertEquals(400, c.getCount(k));
+		}
+	}
+
+	@Test
+	public void testSortedViews() {
+		IntCounter c = new IntCounter(4);
+		for (int k = 0; k < 10; k++) {
+			c.add(k, (k * 7) % 10);
+		}
+		long last = Long.MAX_VALUE;
+		for (Pair<Integer, Long> p : c.inverseSort()) {
+			Assert.assertTrue(p.getValue() <= last);
+			last = p.getValue();
+		}
+		int lastKey = Integer.MIN_VALUE;
+		for (Pair<Integer, Long> p : c.sortKey()) {
+			Assert.assertTrue(p.getKey() > lastKey);
+			lastKey = p.getKey();
+		}
+		Assert.assertEquals(7, c.getMax());
+
+		// the cached view is not reused once the counter changed
+		c.add(3, 100);
+		Assert.assertEquals(Integer.valueOf(3), c.inverseSort().iterator().next().getKey());
+
+		c.keepTopK(3);
+		Assert.assertEquals(3, c.size());
+		Assert.assertEquals(101, c.getCount(3));
+		Assert.assertEquals(9, c.getCount(7));
+		Assert.assertEquals(8, c.getCount(4));
+		Assert.assertEquals(0, c.getCount(1));
+	}
+}
@@ -0,0 +1,174 @@
+package name.herve.dupdir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.DupedirFinder.DuplicateDir;
+import name.herve.dupedir.ListingFormat;
+import name.herve.dupedir.ListingLoader;
+import name.herve.dupedir.ListingReader;
+import name.herve.dupedir.ListingWriter;
+
+public class ListingTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> read(Path listing, List<Long> sizes) throws IOException {
+		List<String> paths = new ArrayList<>();
+		new ListingReader().read(listing, (dir, name, size) -> {
+			paths.add(dir.endsWith("/") ? dir + name : dir + "/" + name);
+			if (sizes != null) {
+				sizes.add(size);
+			}
+		});
+		return paths;
+	}
+
+	private Path write(List<String> paths, boolean binary, boolean withSizes) throws IOException {
+		Path listing = folder.newFile().toPath();
+		try (ListingWriter w = new ListingWriter(listing, binary, withSizes)) {
+			for (int i = 0; i < paths.size(); i++) {
+				w.write(paths.get(i), i);
+			}
+		}
+		return listing;
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		TreeSet<String> sorted = new TreeSet<>();
+		sorted.add("/file.txt");
+		sorted.add("/root/\u00e9t\u00e9/\u00e9.txt");
+		for (int i = 0; i < 3 * ListingFormat.BLOCK_SIZE; i++) {
+			sorted.add("/data/archive/projects/dir" + (i % 97) + "/sub" + (i % 7) + "/file" + (i % 13) + ".txt");
+		}
+		List<String> paths = new ArrayList<>(sorted);
+
+		Path text = write(paths, false, false);
+		Path binary = write(paths, true, true);
+		Assert.assertFalse(ListingFormat.isBinary(text));
+		Assert.assertTrue(ListingFormat.isBinary(binary));
+		Assert.assertTrue(Files.size(write(paths, true, false)) * 3 < Files.size(text));
+
+		List<Long> sizes = new ArrayList<>();
+		Assert.assertEquals(paths, read(binary, sizes));
+		Assert.assertEquals(paths, read(text, null));
+		for (int i = 0; i < sizes.size(); i++) {
+			Assert.assertEquals(i, sizes.get(i).longValue());
+		}
+	}
+
+	@Test
+	public void testLoad() throws IOException, URISyntaxException {
+		List<String> paths = new ArrayList<>(new TreeSet<>(Files.readAllLines(Paths.get(getClass().getClassLoader().getResource("test11.txt").toURI()))));
+		for (boolean binary : new boolean[] { false, true }) {
+			DupedirFinder ddf = new DupedirFinder();
+			ddf.initScan();
+			ddf.setMinNbCommonFiles(1);
+			ddf.load(write(paths, binary, false));
+			ddf.hierarchyStats();
+			Assert.assertEquals(7, ddf.findDuplicates(true).size());
+		}
+	}
+
+	private Map<String, String> summary(DupedirFinder ddf) {
+		Map<String, String> res = new TreeMap<>();
+		for (DuplicateDir dd : ddf.findDuplicates(true)) {
+			String p1 = dd.getDir1().getPath().toString();
+			String p2 = dd.getDir2().getPath().toString();
+			res.put(p1.compareTo(p2) < 0 ? p1 + " " + p2 : p2 + " " + p1, dd.getNbCommonFiles() + " " + dd.getNbCommonFilesHierarchy());
+		}
+		return res;
+	}
+
+	@Test
+	public void testMatchSizes() throws IOException {
+		Path root = folder.newFolder("sizes").toPath();
+		for (String dir : new String[] { "a", "b" }) {
+			Files.createDirectories(root.resolve(dir));
+			Files.write(root.resolve(dir).resolve("x.txt"), "x".getBytes());
+			Files.write(root.resolve(dir).resolve("y.txt"), "y".getBytes());
+			Files.write(root.resolve(dir).resolve("README"), dir.getBytes());
+			Files.write(root.resolve(dir).resolve("index.html"), (dir + dir).getBytes());
+		}
+		Files.write(root.resolve("b").resolve("README"), "longer".getBytes());
+
+		Map<Boolean, Map<String, String>> scanned = new TreeMap<>();
+		for (boolean matchSizes : new boolean[] { false, true }) {
+			DupedirFinder ddf = new DupedirFinder();
+			ddf.initScan();
+			ddf.setMinNbCommonFiles(1);
+			ddf.setMatchSizes(matchSizes);
+			ddf.scan(root, (p, size) -> ddf.addFileToIndex(p, size));
+			ddf.hierarchyStats();
+			List<DuplicateDir> duplicates = ddf.findDuplicates(false);
+			Assert.assertEquals(1, duplicates.size());
+			Assert.assertEquals(matchSizes ? 3 : 4, duplicates.get(0).getNbCommonFiles());
+			scanned.put(matchSizes, summary(ddf));
+		}
+
+		Path listing = folder.getRoot().toPath().resolve("sizes.lst");
+		new DupedirFinder().start(new String[] { "-o", listing.toString(), "-d", root.toString(), "-z" });
+		List<Long> sizes = new ArrayList<>();
+		Assert.assertEquals(8, read(listing, sizes).size());
+		Assert.assertFalse(sizes.contains((long) ListingFormat.UNKNOWN_SIZE));
+
+		for (boolean matchSizes : new boolean[] { false, true }) {
+			DupedirFinder ddf = new DupedirFinder();
+			ddf.initScan();
+			ddf.setMinNbCommonFiles(1);
+			ddf.setMatchSizes(matchSizes);
+			ddf.load(listing);
+			ddf.hierarchyStats();
+			Assert.assertEquals(scanned.get(matchSizes), summary(ddf));
+		}
+	}
+
+	@Test
+	public void testParallelLoad() throws IOException {
+		List<String> paths1 = new ArrayList<>();
+		List<String> paths2 = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			String p = "/root/dir" + (i % 23) + "/sub" + (i % 5) + "/file" + (i % 31) + ".txt";
+			(i % 3 == 0 ? paths1 : paths2).add(p);
+		}
+		paths1 = new ArrayList<>(new TreeSet<>(paths1));
+		paths2 = new ArrayList<>(new TreeSet<>(paths2));
+
+		DupedirFinder expected = new DupedirFinder();
+		expected.initScan();
+		for (String p : paths1) {
+			expected.addFileToIndex(ListingFormat.getDir(p), ListingFormat.getName(p));
+		}
+		for (String p : paths2) {
+			expected.addFileToIndex(ListingFormat.getDir(p), ListingFormat.getName(p));
+		}
+		expected.hierarchyStats();
+
+		for (boolean binary : new boolean[] { false, true }) {
+			List<Path> listings = List.of(write(paths1, binary, false), write(paths2, binary, true));
+			DupedirFinder ddf = new DupedirFinder();
+			ddf.initScan();
+			ListingLoader loader = new ListingLoader(4);
+			loader.setChunkSize(binary ? 1 : 100);
+			loader.load(listings, ddf);
+			ddf.hierarchyStats();
+			Assert.assertEquals(paths1.size() + paths2.size(), loader.getNbFiles());
+			Assert.assertEquals(summary(expected), summary(ddf));
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package name.herve.dupdir;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import name.herve.dupedir.LongIntHashMap;
+
+public class LongIntHashMapTest {
+	@Test
+	public void testAgainstHashMap() {
+		Random rd = new Random(42);
+		LongIntHashMap map = new LongIntHashMap(16);
+		Map<Long, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			long k = LongIntHashMap.pairKey(rd.nextInt(500), rd.nextInt(500));
+			int v = rd.nextInt(10);
+			map.addTo(k, v);
+			expected.merge(k, v, Integer::sum);
+		}
+		map.addTo(Long.MIN_VALUE, 3);
+		expected.put(Long.MIN_VALUE, 3);
+
+		Assert.assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Integer> e : expected.entrySet()) {
+			Assert.assertEquals(e.getValue().intValue(), map.get(e.getKey()));
+		}
+		Map<Long, Integer> iterated = new HashMap<>();
+		map.forEach((k, v) -> iterated.put(k, v));
+		Assert.assertEquals(expected, iterated);
+		Assert.assertFalse(map.containsKey(LongIntHashMap.pairKey(501, 502)));
+	}
+
+	@Test
+	public void testPairKey() {
+		long k = LongIntHashMap.pairKey(12, 7);
+		Assert.assertEquals(k, LongIntHashMap.pairKey(7, 12));
+		Assert.assertEquals(7, LongIntHashMap.pairKeyFirst(k));
+		Assert.assertEquals(12, LongIntHashMap.pairKeySecond(k));
+	}
+}
@@ -0,0 +1,84 @@
+package name.herve.dupdir;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.DupedirFinder.DuplicateDir;
+import name.herve.dupedir.MinHashLsh;
+import name.herve.dupedir.PostingLists;
+import name.herve.dupedir.TreeGenerator;
+import name.herve.dupedir.TreeGenerator.PlantedPair;
+
+public class MinHashLshTest {
+	private Map<String, Integer> find(TreeGenerator g, boolean approximate) throws IOException {
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setApproximate(approximate);
+		g.generate((dir, name, size) -> ddf.addFileToIndex(dir, name));
+		ddf.hierarchyStats();
+		Map<String, Integer> found = new HashMap<>();
+		for (DuplicateDir dd : ddf.findDuplicates(false)) {
+			found.put(dd.getDir1().getPath() + "|" + dd.getDir2().getPath(), dd.getNbCommonFiles());
+			found.put(dd.getDir2().getPath() + "|" + dd.getDir1().getPath(), dd.getNbCommonFiles());
+		}
+		return found;
+	}
+
+	@Test
+	public void testCommonNames() throws IOException {
+		// few names, most of them in more than 50 directories
+		TreeGenerator g = new TreeGenerator();
+		g.setDepth(3);
+		g.setFanOut(8);
+		g.setNbFilesPerDir(30);
+		g.setNbNames(400);
+		g.setZipfExponent(0.5);
+		g.setNbPlanted(5);
+		g.setPlantedOverlap(0.9);
+
+		Map<String, Integer> exact = find(g, false);
+		Map<String, Integer> approximate = find(g, true);
+		int nbExact = 0;
+		int nbApproximate = 0;
+		for (PlantedPair p : g.getPlanted()) {
+			String key = p.getOriginal() + "|" + p.getCopy();
+			if (Integer.valueOf(p.getNbCommonFiles()).equals(exact.get(key))) {
+				nbExact++;
+			}
+			if (Integer.valueOf(p.getNbCommonFiles()).equals(approximate.get(key))) {
+				nbApproximate++;
+			}
+		}
+		// the common names hide the copies from the exact mode, the approximate one finds them with their full counts
+		Assert.assertTrue(nbApproximate + " / " + g.getPlanted().size(), nbApproximate >= (0.9 * g.getPlanted().size()));
+		Assert.assertTrue(nbExact + " / " + nbApproximate, nbExact < nbApproximate);
+	}
+
+	@Test
+	public void testMaxBucketSize() {
+		// 30 identical directories fall in the same bucket of every band
+		PostingLists byDir = new PostingLists();
+		for (int d = 0; d < 30; d++) {
+			for (int n = 0; n < 10; n++) {
+				byDir.add(d, n);
+			}
+		}
+		byDir.freeze();
+
+		MinHashLsh lsh = new MinHashLsh(4, 2, 1);
+		Assert.assertEquals(435, lsh.candidates(byDir, 1).size());
+		Assert.assertEquals(0, lsh.getNbTruncatedBuckets());
+		Assert.assertEquals(0, lsh.getNbDroppedPairs());
+
+		// each directory only paired with the next 10 : 10 x 20 + 9 + ... + 1 of the 435 pairs
+		lsh.setMaxBucketSize(10);
+		Assert.assertEquals(245, lsh.candidates(byDir, 1).size());
+		Assert.assertEquals(4, lsh.getNbTruncatedBuckets());
+		Assert.assertEquals(4 * 190, lsh.getNbDroppedPairs());
+	}
+}
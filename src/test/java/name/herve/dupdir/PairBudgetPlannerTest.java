@@ -0,0 +1,133 @@
+package name.herve.dupdir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.DupedirFinder.DuplicateDir;
+import name.herve.dupedir.PairBudgetPlanner;
+import name.herve.dupedir.PostingLists;
+import name.herve.dupedir.TreeGenerator;
+
+public class PairBudgetPlannerTest {
+	private String key(DuplicateDir dd) {
+		String p1 = dd.getDir1().getPath().toString();
+		String p2 = dd.getDir2().getPath().toString();
+		return p1.compareTo(p2) < 0 ? p1 + " " + p2 : p2 + " " + p1;
+	}
+
+	@Test
+	public void testBudget() throws IOException {
+		TreeGenerator g = new TreeGenerator();
+		g.setDepth(3);
+		g.setFanOut(8);
+		g.setNbFilesPerDir(30);
+		g.setNbNames(400);
+		g.setZipfExponent(0.5);
+
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setPairBudget(200000);
+		g.generate((dir, name, size) -> ddf.addFileToIndex(dir, name));
+		ddf.hierarchyStats();
+		ddf.findDuplicates(false);
+
+		// this tree affords a cutoff higher than the default one, but not all of its pairs
+		Assert.assertTrue(ddf.getCountedNbDirForFile() > 50);
+		Assert.assertEquals(50, ddf.getMaxNbDirForFile());
+		Assert.assertTrue(ddf.getNbSkippedPostingLists() > 0);
+	}
+
+	@Test
+	public void testLive() {
+		Random rd = new Random(24);
+		List<String[]> files = new ArrayList<>();
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setMinNbCommonFiles(2);
+		ddf.setMaxNbDirForFile(20);
+		ddf.setPairBudget(300);
+		for (int i = 0; i < 3000; i++) {
+			String[] f = { "/root/d" + rd.nextInt(5) + "/d" + rd.nextInt(5), "f" + rd.nextInt(400) };
+			files.add(f);
+			ddf.addFileToIndex(f[0], f[1]);
+		}
+		ddf.hierarchyStats();
+		ddf.findDuplicates(false);
+		int cutoff = ddf.getCountedNbDirForFile();
+		Assert.assertTrue(cutoff < 20);
+
+		// the live counts are seeded and updated with the same cutoff
+		DupedirFinder.LiveDuplicates live = ddf.liveDuplicates(false);
+		Assert.assertEquals(cutoff, live.getCutoff());
+		for (int i = 0; i < 2000; i++) {
+			if (rd.nextBoolean()) {
+				String[] f = files.remove(rd.nextInt(files.size()));
+				Assert.assertTrue(ddf.removeFileFromIndex(f[0], f[1], -1));
+			} else {
+				String[] f = { "/root/d" + rd.nextInt(5) + "/d" + rd.nextInt(5), "f" + rd.nextInt(400) };
+				files.add(f);
+				ddf.addFileToIndex(f[0], f[1]);
+			}
+		}
+
+		DupedirFinder expected = new DupedirFinder();
+		expected.initScan();
+		expected.setMinNbCommonFiles(2);
+		expected.setMaxNbDirForFile(cutoff);
+		for (String[] f : files) {
+			expected.addFileToIndex(f[0], f[1]);
+		}
+		expected.hierarchyStats();
+		Map<String, Integer> counts = new TreeMap<>();
+		for (DuplicateDir dd : expected.findDuplicates(false)) {
+			counts.put(key(dd), dd.getNbCommonFiles());
+		}
+		Map<String, Integer> liveCounts = new TreeMap<>();
+		for (DuplicateDir dd : live.rank(Integer.MAX_VALUE).getTop()) {
+			liveCounts.put(key(dd), dd.getNbCommonFiles());
+		}
+		Assert.assertFalse(counts.isEmpty());
+		Assert.assertEquals(counts, liveCounts);
+	}
+
+	@Test
+	public void testCutoff() {
+		PostingLists lists = new PostingLists();
+		// lengths 1, 2, 3, 3 and 10 : 0, 1, 3, 3 and 45 pairs
+		lists.add(0, 0);
+		lists.add(1, 0);
+		lists.add(1, 1);
+		for (int l = 2; l < 4; l++) {
+			for (int v = 0; v < 3; v++) {
+				lists.add(l, v);
+			}
+		}
+		for (int v = 0; v < 10; v++) {
+			lists.add(4, v);
+		}
+		lists.freeze();
+
+		PairBudgetPlanner planner = new PairBudgetPlanner(lists);
+		Assert.assertEquals(10, planner.getMaxLength());
+		Assert.assertEquals(5, planner.getNbLists());
+		Assert.assertEquals(52, planner.getNbPairs(planner.getMaxLength()));
+		Assert.assertEquals(7, planner.getNbPairs(9));
+		Assert.assertEquals(1, planner.getNbListsAbove(3));
+
+		Assert.assertEquals(1, planner.cutoffFor(0));
+		Assert.assertEquals(2, planner.cutoffFor(6));
+		Assert.assertEquals(9, planner.cutoffFor(7));
+		Assert.assertEquals(9, planner.cutoffFor(51));
+		Assert.assertEquals(10, planner.cutoffFor(52));
+		// no line for the empty 4 to 7 bucket
+		Assert.assertEquals(2, planner.describe(9).size());
+	}
+}
@@ -0,0 +1,91 @@
+package name.herve.dupdir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.ListingWriter;
+import name.herve.dupedir.PhaseMetrics;
+import name.herve.dupedir.ScanSnapshot;
+import name.herve.dupedir.TreeGenerator;
+
+public class PhaseMetricsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path listing(Path dir) throws IOException {
+		Path listing = dir.resolve("listing.lst");
+		TreeGenerator g = new TreeGenerator();
+		g.setDepth(3);
+		g.setFanOut(4);
+		g.setNbNames(300);
+		try (ListingWriter w = new ListingWriter(listing, true, false)) {
+			g.generate((d, name, size) -> w.write(ScanSnapshot.child(d, name)));
+		}
+		return listing;
+	}
+
+	@Test
+	public void testEvents() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Path listing = listing(dir);
+		Path jfr = dir.resolve("run.jfr");
+
+		DupedirFinder ddf = new DupedirFinder();
+		try (Recording r = new Recording()) {
+			r.enable("name.herve.dupedir.Phase");
+			r.start();
+			ddf.initScan();
+			ddf.setMaxNbDirForFile(5);
+			ddf.load(listing);
+			ddf.hierarchyStats();
+			ddf.findDuplicates(true);
+			r.stop();
+			r.dump(jfr);
+		}
+
+		List<String> phases = new ArrayList<>();
+		for (RecordedEvent e : RecordingFile.readAllEvents(jfr)) {
+			phases.add(e.getString("phase"));
+			if (e.getString("phase").equals("count pairs")) {
+				Assert.assertTrue(e.getLong("skippedPostingLists") > 0);
+				Assert.assertEquals(ddf.getNbSkippedPostingLists(), e.getLong("skippedPostingLists"));
+			}
+		}
+		Assert.assertTrue(phases.containsAll(List.of("load", "index", "count pairs", "hierarchy", "rank")));
+
+		List<String> recorded = new ArrayList<>();
+		for (PhaseMetrics.Phase p : ddf.getMetrics().getPhases()) {
+			recorded.add(p.getName());
+		}
+		Assert.assertEquals(List.of("load", "index", "count pairs", "hierarchy", "rank"), recorded);
+		Assert.assertTrue(ddf.getMetrics().getPhases().get(0).getItems() > 0);
+		Assert.assertTrue(ddf.getMetrics().getPhases().get(2).getPeakCandidates() > 0);
+	}
+
+	@Test
+	public void testSummary() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Path listing = listing(dir);
+		Path summary = dir.resolve("summary.json");
+		new DupedirFinder().start(new String[] { "-l", listing.toString(), "-f", "-k", "5", "-M", summary.toString() });
+
+		String json = Files.readString(summary);
+		Assert.assertTrue(json.startsWith("{"));
+		for (String phase : List.of("load", "index", "count pairs", "rank")) {
+			Assert.assertTrue(json.contains("\"name\": \"" + phase + "\""));
+		}
+		Assert.assertTrue(json.contains("\"skippedPostingLists\": "));
+	}
+}
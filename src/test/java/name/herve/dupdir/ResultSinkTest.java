@@ -0,0 +1,92 @@
+package name.herve.dupdir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.DupedirFinder.DuplicateDir;
+import name.herve.dupedir.Log;
+import name.herve.dupedir.ResultSink;
+
+public class ResultSinkTest {
+	private static final String S = File.separator;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<DuplicateDir> duplicates() {
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		for (int i = 0; i < 5; i++) {
+			ddf.addFileToIndex(S + "data" + S + "a,1", "f" + i);
+			ddf.addFileToIndex(S + "data" + S + "b\"2", "f" + i);
+		}
+		ddf.hierarchyStats();
+		return ddf.findDuplicates(false);
+	}
+
+	@Test
+	public void testCsv() throws IOException {
+		List<DuplicateDir> duplicates = duplicates();
+		Assert.assertEquals(1, duplicates.size());
+		Path file = folder.getRoot().toPath().resolve("dupedir-results.csv");
+		try (ResultSink sink = new ResultSink(file, ResultSink.Format.of(file))) {
+			// enough lines for several batches
+			for (int i = 0; i < 10000; i++) {
+				sink.write(duplicates);
+			}
+			Assert.assertEquals(10000, sink.getNbWritten());
+		}
+		List<String> lines = Files.readAllLines(file);
+		Assert.assertEquals(10001, lines.size());
+		Assert.assertTrue(lines.get(0).startsWith("score,maxPct,nbCommonFiles,"));
+		Assert.assertTrue(lines.get(1).contains(",1.0,5,0,-1,0,5,5,"));
+		Assert.assertTrue(lines.get(1).contains("\"" + S + "data" + S + "a,1\""));
+		Assert.assertTrue(lines.get(1).contains("\"" + S + "data" + S + "b\"\"2\""));
+		Assert.assertEquals(lines.get(1), lines.get(10000));
+	}
+
+	@Test
+	public void testJsonLines() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("dupedir-results.jsonl");
+		try (ResultSink sink = new ResultSink(file, ResultSink.Format.of(file))) {
+			sink.write(duplicates());
+		}
+		List<String> lines = Files.readAllLines(file);
+		Assert.assertEquals(1, lines.size());
+		String line = lines.get(0);
+		Assert.assertTrue(line.startsWith("{\"score\": "));
+		Assert.assertTrue(line.endsWith("}"));
+		Assert.assertTrue(line.contains("\"nbCommonFiles\": 5, "));
+		Assert.assertTrue(line.contains("b\\\"2\"}"));
+	}
+
+	@Test
+	public void testTimestamp() throws InterruptedException {
+		Thread[] threads = new Thread[4];
+		boolean[] ok = new boolean[threads.length];
+		for (int t = 0; t < threads.length; t++) {
+			int idx = t;
+			threads[t] = new Thread(() -> {
+				boolean valid = true;
+				for (int i = 0; i < 10000; i++) {
+					valid &= Log.timestamp().matches("\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{3}");
+				}
+				ok[idx] = valid;
+			});
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			Assert.assertTrue(ok[t]);
+		}
+	}
+}
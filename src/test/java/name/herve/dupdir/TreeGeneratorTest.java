@@ -0,0 +1,89 @@
+package name.herve.dupdir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import name.herve.dupedir.DupedirFinder;
+import name.herve.dupedir.DupedirFinder.DuplicateDir;
+import name.herve.dupedir.TreeGenerator;
+import name.herve.dupedir.TreeGenerator.PlantedPair;
+
+public class TreeGeneratorTest {
+	private static final String S = File.separator;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TreeGenerator generator() {
+		TreeGenerator g = new TreeGenerator();
+		g.setDepth(3);
+		g.setFanOut(3);
+		g.setNbFilesPerDir(10);
+		g.setNbNames(500);
+		g.setNbPlanted(4);
+		g.setPlantedOverlap(0.7);
+		return g;
+	}
+
+	@Test
+	public void testCreate() throws IOException {
+		Path dir = folder.getRoot().toPath();
+		Path listing = dir.resolve("listing.txt");
+		Path tree = dir.resolve("tree");
+		new TreeGenerator().start(new String[] { "-r", tree.toString(), "-o", listing.toString(), "-T", "-D", "2", "-F", "2", "-n", "3", "-p", "1" });
+
+		List<String> lines = Files.readAllLines(listing);
+		try (Stream<Path> s = Files.walk(tree)) {
+			Assert.assertEquals(lines.size(), s.filter(Files::isRegularFile).count());
+		}
+		for (String l : lines) {
+			Assert.assertTrue(l.startsWith(tree.toAbsolutePath().toString()));
+			Assert.assertTrue(Files.isRegularFile(Path.of(l)));
+		}
+	}
+
+	@Test
+	public void testDeterministicAndSorted() throws IOException {
+		List<String> paths1 = new ArrayList<>();
+		generator().generate((dir, name, size) -> paths1.add(dir + S + name + " " + size));
+		List<String> paths2 = new ArrayList<>();
+		generator().generate((dir, name, size) -> paths2.add(dir + S + name + " " + size));
+		Assert.assertEquals(paths1, paths2);
+		for (int i = 1; i < paths1.size(); i++) {
+			Assert.assertTrue(paths1.get(i - 1).compareTo(paths1.get(i)) < 0);
+		}
+	}
+
+	@Test
+	public void testPlanted() throws IOException {
+		TreeGenerator g = generator();
+		DupedirFinder ddf = new DupedirFinder();
+		ddf.initScan();
+		ddf.setMaxNbDirForFile(1000);
+		g.generate((dir, name, size) -> ddf.addFileToIndex(dir, name));
+		Assert.assertEquals(4 * 4, g.getPlanted().size());
+
+		Map<String, Integer> found = new HashMap<>();
+		for (DuplicateDir dd : ddf.findDuplicates(false)) {
+			found.put(dd.getDir1().getPath() + "|" + dd.getDir2().getPath(), dd.getNbCommonFiles());
+			found.put(dd.getDir2().getPath() + "|" + dd.getDir1().getPath(), dd.getNbCommonFiles());
+		}
+		for (PlantedPair p : g.getPlanted()) {
+			if (p.getNbCommonFiles() >= 3) {
+				Assert.assertEquals(p.toString(), Integer.valueOf(p.getNbCommonFiles()), found.get(p.getOriginal() + "|" + p.getCopy()));
+			}
+		}
+	}
+}